@@ -17,12 +17,11 @@
 package com.example.google.touroflondon;
 
 import com.example.google.R;
-import com.example.google.touroflondon.data.TourDbHelper;
+import com.example.google.touroflondon.data.ImportReport;
+import com.example.google.touroflondon.data.TourImportTask;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GooglePlayServicesUtil;
-
-import org.json.JSONException;
-import org.json.JSONObject;
+import com.google.android.gms.maps.model.LatLng;
 
 import android.app.Activity;
 import android.app.Dialog;
@@ -32,17 +31,20 @@ import android.os.Bundle;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
+import android.view.Window;
+import android.widget.Toast;
 
-import java.io.IOException;
+import java.util.ArrayList;
 
 /**
  * The main activity launched on startup. This Activity handles the two
  * fragments that make up this application: TourMapFragment and PoiListFragment.
- * It also ensures that Google Play Services are available on startup and adds
- * an option for the About dialog to the ActionBar.
+ * It also ensures that Google Play Services are available on startup, imports
+ * the tour data in the background and adds an option for the About dialog to
+ * the ActionBar.
  */
 public class MainActivity extends Activity implements PoiListFragment.OnPoiSelectedListener,
-        SelectMapTypeDialog.MapTypeDialogListener {
+        SelectMapTypeDialog.MapTypeDialogListener, TourImportTask.ImportListener {
 
     // The MapFragment
     private TourMapFragment mMapFragment = null;
@@ -56,10 +58,16 @@ public class MainActivity extends Activity implements PoiListFragment.OnPoiSelec
     // The POI menu item for the phone layout
     private MenuItem mPoiMenuItem = null;
 
+    // True if the fragments loaded previously imported data on startup
+    private boolean mHadData = false;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
+        // Show the progress of the data import in the action bar
+        requestWindowFeature(Window.FEATURE_PROGRESS);
+
         // Initialise the layout, using the resource manager to distinguish
         // between a phone (layout/) and tablet (layout-large/)
         setContentView(R.layout.activity_main);
@@ -74,10 +82,11 @@ public class MainActivity extends Activity implements PoiListFragment.OnPoiSelec
         // has already been loaded.
         mIsTablet = (mPoiListFragment != null);
 
-        // load data into database if required
-        if (!Util.hasDataLoaded(getApplicationContext())) {
-            loadData();
-        }
+        // Verify the data in the background and import it if it has changed.
+        // The fragments reload their data once changes have been imported.
+        mHadData = Util.hasDataLoaded(getApplicationContext());
+        TourImportTask.addListener(this);
+        TourImportTask.start(getApplicationContext());
 
     }
 
@@ -122,29 +131,45 @@ public class MainActivity extends Activity implements PoiListFragment.OnPoiSelec
         }
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        TourImportTask.removeListener(this);
+    }
+
     /**
-     * Parses the tour.json file from the raw resources and imports it into the
-     * database.
+     * Updates the progress bar in the action bar while the tour data is being
+     * imported.
+     * 
+     * @param percent
      */
-    private void loadData() {
-        try {
-            // Parse file into JSONObject
-            JSONObject data = Util.readRoute(getApplicationContext());
-
-            // Initialise databse helper
-            TourDbHelper dbHelper = new TourDbHelper(getApplicationContext());
-
-            // Insert POIs and route
-            dbHelper.loadPois(data.getJSONArray("pointsOfInterest"));
-            dbHelper.loadRoute(data.getJSONArray("route"));
+    @Override
+    public void onImportProgress(int percent) {
+        setProgressBarVisibility(true);
+        setProgress(percent * (Window.PROGRESS_END - Window.PROGRESS_START) / 100);
+    }
 
-            // Mark data as loaded
-            Util.setDataLoaded(getApplicationContext(), true);
+    /**
+     * The tour data has been verified or imported into the database. If the
+     * data has changed, notify the fragments so that they can reload it. If
+     * the import has failed, the fragments keep the data they have.
+     * 
+     * @param report
+     */
+    @Override
+    public void onImportFinished(ImportReport report) {
+        setProgressBarVisibility(false);
+        if (!report.isSuccessful()) {
+            Toast.makeText(this, R.string.import_failed, Toast.LENGTH_LONG).show();
+            return;
+        }
+        if (mHadData && !report.hasChanges()) {
+            return;
+        }
 
-        } catch (IOException e) {
-            throw new IllegalStateException("Could not access tour.json file.", e);
-        } catch (JSONException e) {
-            throw new IllegalStateException("Could not parse tour.json file.", e);
+        mMapFragment.onDataLoaded();
+        if (mPoiListFragment != null) {
+            mPoiListFragment.onDataLoaded();
         }
     }
 
@@ -222,15 +247,27 @@ public class MainActivity extends Activity implements PoiListFragment.OnPoiSelec
      * close the POI fragment.
      * 
      * @param id Selected poi
+     * @param location Location of the selected poi
      */
     @Override
-    public void onPoiSelected(String id) {
+    public void onPoiSelected(long id, LatLng location) {
         if (!mIsTablet) {
             // Phone layout: Need to return back to MapFragment first and
             // display action item again
             closePoiFragment();
         }
-        mMapFragment.onPoiSelected(id);
+        mMapFragment.onPoiSelected(id, location);
+    }
+
+    /**
+     * The PoiListFragment has settled. Prefetch the thumbnails of its shown
+     * POIs through the map.
+     * 
+     * @param pictureUrls
+     */
+    @Override
+    public void onPoisShown(ArrayList<String> pictureUrls) {
+        mMapFragment.prefetchThumbnails(pictureUrls);
     }
 
     /**
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.google.touroflondon;
+
+import com.example.google.R;
+import com.google.android.gms.maps.model.BitmapDescriptor;
+import com.google.android.gms.maps.model.BitmapDescriptorFactory;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.os.SystemClock;
+
+import java.util.HashMap;
+
+/**
+ * A cache of the marker icons. Every icon is decoded or drawn once and the
+ * same {@link BitmapDescriptor} is reused for all markers that show it,
+ * instead of decoding the same few images again for every marker.
+ * <p>
+ * Icons are keyed by the {@link Variant} and either the
+ * {@link PointOfInterest.Type} or the label of a cluster. The number of icons
+ * created and the time spent creating them are recorded, set
+ * {@link #CACHE_ENABLED} to false to measure the cost without the cache.
+ */
+public class MarkerIconCache {
+
+    /** If false, a new icon is created for every marker. */
+    private static final boolean CACHE_ENABLED = true;
+
+    /** Cluster sizes are rounded down to these values, in descending order. */
+    private static final int[] CLUSTER_BUCKETS = {
+            1000, 500, 200, 100, 50, 20, 10
+    };
+
+    /**
+     * Variants of the marker icons.
+     */
+    public enum Variant {
+        /** The icon of a single POI, by type. */
+        POI,
+        /** The icon of a cluster of POIs, by label. */
+        CLUSTER
+    }
+
+    private final Resources mResources;
+
+    private final HashMap<String, BitmapDescriptor> mIcons =
+            new HashMap<String, BitmapDescriptor>();
+
+    private int mCreated = 0;
+    private long mCreateMillis = 0;
+    private int mRequests = 0;
+
+    public MarkerIconCache(Resources resources) {
+        mResources = resources;
+    }
+
+    /**
+     * Returns the icon for a single POI of the type.
+     *
+     * @param type
+     * @return
+     */
+    public BitmapDescriptor getPoiIcon(PointOfInterest.Type type) {
+        final String key = Variant.POI + type.name();
+        BitmapDescriptor icon = get(key);
+        if (icon == null) {
+            final long start = SystemClock.elapsedRealtime();
+            Bitmap bitmap = BitmapFactory.decodeResource(mResources, type.mResId);
+            icon = put(key, BitmapDescriptorFactory.fromBitmap(bitmap), start);
+        }
+        return icon;
+    }
+
+    /**
+     * Returns the icon for a cluster of the size, a circle labelled with the
+     * number of POIs. Large numbers are rounded down, e.g. to "50+", so that
+     * icons can be shared between clusters.
+     *
+     * @param size
+     * @return
+     */
+    public BitmapDescriptor getClusterIcon(int size) {
+        String label = Integer.toString(size);
+        for (int bucket : CLUSTER_BUCKETS) {
+            if (size >= bucket) {
+                label = bucket + "+";
+                break;
+            }
+        }
+
+        final String key = Variant.CLUSTER + label;
+        BitmapDescriptor icon = get(key);
+        if (icon == null) {
+            final long start = SystemClock.elapsedRealtime();
+            icon = put(key, BitmapDescriptorFactory.fromBitmap(drawClusterIcon(label)), start);
+        }
+        return icon;
+    }
+
+    /**
+     * Removes all icons. Must be called once the map has been destroyed, the
+     * descriptors can not be used with a new map.
+     */
+    public void clear() {
+        mIcons.clear();
+    }
+
+    private BitmapDescriptor get(String key) {
+        mRequests++;
+        return CACHE_ENABLED ? mIcons.get(key) : null;
+    }
+
+    private BitmapDescriptor put(String key, BitmapDescriptor icon, long start) {
+        mCreated++;
+        mCreateMillis += SystemClock.elapsedRealtime() - start;
+        if (CACHE_ENABLED) {
+            mIcons.put(key, icon);
+        }
+        return icon;
+    }
+
+    private Bitmap drawClusterIcon(String label) {
+        final int iconSize = mResources.getDimensionPixelSize(R.dimen.cluster_icon_size);
+        Bitmap bitmap = Bitmap.createBitmap(iconSize, iconSize, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setColor(mResources.getColor(R.color.cluster_background));
+        canvas.drawCircle(iconSize / 2f, iconSize / 2f, iconSize / 2f, paint);
+
+        paint.setColor(mResources.getColor(R.color.cluster_text));
+        paint.setTextSize(mResources.getDimension(R.dimen.cluster_text_size));
+        paint.setTextAlign(Paint.Align.CENTER);
+        paint.setFakeBoldText(true);
+        canvas.drawText(label, iconSize / 2f,
+                (iconSize - paint.ascent() - paint.descent()) / 2f, paint);
+        return bitmap;
+    }
+
+    @Override
+    public String toString() {
+        return "Created " + mCreated + " marker icons for " + mRequests + " requests in "
+                + mCreateMillis + "ms (cache " + (CACHE_ENABLED ? "enabled" : "disabled") + ")";
+    }
+}
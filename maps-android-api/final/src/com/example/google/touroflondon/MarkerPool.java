@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.google.touroflondon;
+
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.model.Marker;
+import com.google.android.gms.maps.model.MarkerOptions;
+
+import java.util.ArrayList;
+
+/**
+ * A pool of markers. Markers that are no longer needed are hidden and kept in
+ * the pool instead of being removed from the map, and are reused for new
+ * markers by moving them and resetting their icon, anchor, title and snippet.
+ * This avoids creating and destroying markers on the map side while the
+ * camera moves over a dense area.
+ */
+public class MarkerPool {
+
+    /** Maximum number of hidden markers kept in the pool. */
+    private static final int MAX_POOL_SIZE = 200;
+
+    private final GoogleMap mMap;
+
+    // Hidden markers that can be reused
+    private final ArrayList<Marker> mPool = new ArrayList<Marker>();
+
+    private int mHits = 0;
+    private int mMisses = 0;
+    private int mLive = 0;
+
+    public MarkerPool(GoogleMap map) {
+        mMap = map;
+    }
+
+    /**
+     * Returns a visible marker with the options, reusing a marker from the
+     * pool if there is one.
+     *
+     * @param options
+     * @return
+     */
+    public Marker obtain(MarkerOptions options) {
+        mLive++;
+        if (mPool.isEmpty()) {
+            mMisses++;
+            return mMap.addMarker(options);
+        }
+
+        mHits++;
+        Marker marker = mPool.remove(mPool.size() - 1);
+        marker.setPosition(options.getPosition());
+        marker.setIcon(options.getIcon());
+        marker.setAnchor(options.getAnchorU(), options.getAnchorV());
+        marker.setTitle(options.getTitle());
+        marker.setSnippet(options.getSnippet());
+        marker.setVisible(true);
+        return marker;
+    }
+
+    /**
+     * Hides the marker and returns it to the pool. The marker is removed from
+     * the map if the pool is full.
+     *
+     * @param marker
+     */
+    public void release(Marker marker) {
+        mLive--;
+        if (mPool.size() >= MAX_POOL_SIZE) {
+            marker.remove();
+            return;
+        }
+        marker.hideInfoWindow();
+        marker.setVisible(false);
+        mPool.add(marker);
+    }
+
+    @Override
+    public String toString() {
+        return "Marker pool: " + mLive + " live, " + mPool.size() + " pooled, " + mHits
+                + " hits, " + mMisses + " misses";
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.google.touroflondon;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.Marker;
+import com.google.android.gms.maps.model.MarkerOptions;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * Adds markers to the map in small batches instead of all at once, obtaining
+ * them from a {@link MarkerPool}. Each batch
+ * runs on the UI thread for at most {@link #FRAME_BUDGET_MS} before the next
+ * batch is posted to the message queue, so the map can draw frames and handle
+ * touch events while a large number of markers is being added. Markers closest
+ * to the camera target are added first.
+ */
+public class MarkerScheduler {
+
+    /** Maximum time spent adding markers before yielding to the UI thread. */
+    private static final long FRAME_BUDGET_MS = 8;
+
+    /**
+     * Receives a marker once it has been added to the map.
+     */
+    public interface MarkerCallback {
+        public void onMarkerAdded(Marker marker);
+    }
+
+    /**
+     * Receives the progress of the scheduled markers on the UI thread.
+     */
+    public interface ProgressListener {
+        /**
+         * Called after each batch of markers has been added.
+         *
+         * @param added Number of markers added since the scheduler was idle
+         * @param total Number of markers scheduled since the scheduler was idle
+         */
+        public void onMarkerProgress(int added, int total);
+    }
+
+    /**
+     * A marker waiting to be added.
+     */
+    private static class PendingMarker {
+        final MarkerOptions mOptions;
+        final MarkerCallback mCallback;
+        double mDistance;
+
+        PendingMarker(MarkerOptions options, MarkerCallback callback) {
+            this.mOptions = options;
+            this.mCallback = callback;
+        }
+    }
+
+    // Sorts the pending markers by descending distance to the camera target
+    private static final Comparator<PendingMarker> FARTHEST_FIRST =
+            new Comparator<PendingMarker>() {
+                @Override
+                public int compare(PendingMarker lhs, PendingMarker rhs) {
+                    return Double.compare(rhs.mDistance, lhs.mDistance);
+                }
+            };
+
+    private final MarkerPool mPool;
+    private final ProgressListener mListener;
+    private final Handler mHandler = new Handler();
+
+    // Markers waiting to be added, the next marker is at the end of the list
+    private final ArrayList<PendingMarker> mPending = new ArrayList<PendingMarker>();
+
+    private int mAdded = 0;
+    private int mTotal = 0;
+
+    private final Runnable mAddBatch = new Runnable() {
+        @Override
+        public void run() {
+            addBatch();
+        }
+    };
+
+    public MarkerScheduler(MarkerPool pool, ProgressListener listener) {
+        mPool = pool;
+        mListener = listener;
+    }
+
+    /**
+     * Schedules a marker to be added to the map. Markers are only added once
+     * {@link #start(LatLng)} has been called.
+     *
+     * @param options
+     * @param callback
+     */
+    public void add(MarkerOptions options, MarkerCallback callback) {
+        mPending.add(new PendingMarker(options, callback));
+        mTotal++;
+    }
+
+    /**
+     * Starts adding all scheduled markers, closest to the target first.
+     *
+     * @param target
+     */
+    public void start(LatLng target) {
+        // Scale longitudes so that distances are comparable in all directions
+        final double scale = Math.cos(Math.toRadians(target.latitude));
+        for (PendingMarker pending : mPending) {
+            double dLat = pending.mOptions.getPosition().latitude - target.latitude;
+            double dLng = (pending.mOptions.getPosition().longitude - target.longitude) * scale;
+            pending.mDistance = dLat * dLat + dLng * dLng;
+        }
+        Collections.sort(mPending, FARTHEST_FIRST);
+
+        mHandler.removeCallbacks(mAddBatch);
+        mHandler.post(mAddBatch);
+    }
+
+    /**
+     * Drops all markers that have not been added yet.
+     */
+    public void cancel() {
+        mHandler.removeCallbacks(mAddBatch);
+        mPending.clear();
+        mAdded = 0;
+        mTotal = 0;
+    }
+
+    private void addBatch() {
+        final long start = SystemClock.uptimeMillis();
+        while (!mPending.isEmpty() && SystemClock.uptimeMillis() - start < FRAME_BUDGET_MS) {
+            PendingMarker pending = mPending.remove(mPending.size() - 1);
+            Marker marker = mPool.obtain(pending.mOptions);
+            pending.mCallback.onMarkerAdded(marker);
+            mAdded++;
+        }
+
+        mListener.onMarkerProgress(mAdded, mTotal);
+        if (mPending.isEmpty()) {
+            mAdded = 0;
+            mTotal = 0;
+        } else {
+            // Let the UI thread draw a frame before the next batch
+            mHandler.post(mAddBatch);
+        }
+    }
+}
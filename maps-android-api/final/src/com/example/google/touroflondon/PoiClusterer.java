@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.google.touroflondon;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import android.os.AsyncTask;
+import android.support.v4.util.LongSparseArray;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+
+/**
+ * Groups points of interest that are close to each other on screen into
+ * clusters. The map is divided into a grid of square cells of
+ * {@link #CELL_SIZE_DP} at each zoom level and all POIs within a cell form a
+ * cluster. Because the number of cells doubles with every zoom level, clusters
+ * split up into smaller clusters as the map is zoomed in.
+ * <p>
+ * The grid of each zoom level is computed once on a background thread and
+ * kept up to date as POIs are added and removed, so moving the camera only
+ * computes the grids of zoom levels that have not been shown yet. All work is
+ * done in order on the serial {@link AsyncTask} executor and the results are
+ * delivered on the UI thread.
+ */
+public class PoiClusterer {
+
+    /** Size of a grid cell in dp, at a map width of 256dp at zoom level 0. */
+    public static final int CELL_SIZE_DP = 64;
+
+    /** POIs are no longer clustered above this zoom level. */
+    public static final int MAX_CLUSTER_ZOOM = 17;
+
+    /**
+     * Receives the clusters computed for a zoom level on the UI thread.
+     */
+    public interface Callback {
+        public void onClustersComputed(int zoom, ArrayList<Cluster> clusters);
+    }
+
+    /**
+     * An immutable cluster of one or more POIs.
+     */
+    public static class Cluster {
+
+        /**
+         * Identifies the grid cell of this cluster within its zoom level, or
+         * the POI of a cluster of a single POI.
+         */
+        public final long mKey;
+
+        /** Number of POIs in this cluster. */
+        public final int mSize;
+
+        /** The centre of all POIs in this cluster. */
+        public final LatLng mPosition;
+
+        /** The bounding box of all POIs in this cluster. */
+        public final LatLngBounds mBounds;
+
+        /** The only POI of this cluster, null if it contains more than one. */
+        public final PointOfInterest mPoi;
+
+        Cluster(long key, int size, LatLng position, LatLngBounds bounds, PointOfInterest poi) {
+            this.mKey = key;
+            this.mSize = size;
+            this.mPosition = position;
+            this.mBounds = bounds;
+            this.mPoi = poi;
+        }
+
+        /**
+         * Returns a cluster of the single POI, keyed by its ID.
+         */
+        public static Cluster of(PointOfInterest poi) {
+            final LatLng location = poi.getLocation();
+            return new Cluster(poi.getId(), 1, location, new LatLngBounds(location, location),
+                    poi);
+        }
+    }
+
+    /**
+     * The POIs within a single grid cell.
+     */
+    private static class Cell {
+        final ArrayList<PointOfInterest> mPois = new ArrayList<PointOfInterest>();
+        double mSumLat = 0;
+        double mSumLng = 0;
+
+        void add(PointOfInterest poi) {
+            mPois.add(poi);
+            mSumLat += poi.getLatitude();
+            mSumLng += poi.getLongitude();
+        }
+
+        void remove(PointOfInterest poi) {
+            if (mPois.remove(poi)) {
+                mSumLat -= poi.getLatitude();
+                mSumLng -= poi.getLongitude();
+            }
+        }
+
+        Cluster toCluster(long key) {
+            final int size = mPois.size();
+            if (size == 1) {
+                return Cluster.of(mPois.get(0));
+            }
+
+            LatLngBounds.Builder builder = LatLngBounds.builder();
+            for (PointOfInterest poi : mPois) {
+                builder.include(poi.getLocation());
+            }
+            return new Cluster(key, size, new LatLng(mSumLat / size, mSumLng / size),
+                    builder.build(), null);
+        }
+    }
+
+    // All POIs that are clustered, only accessed on the background thread
+    private final HashSet<PointOfInterest> mPois = new HashSet<PointOfInterest>();
+
+    // Grids of the zoom levels that have been computed, by zoom level. Only
+    // accessed on the background thread.
+    private final SparseArray<LongSparseArray<Cell>> mGrids = new SparseArray<LongSparseArray<Cell>>();
+
+    private final Callback mCallback;
+
+    public PoiClusterer(Callback callback) {
+        mCallback = callback;
+    }
+
+    /**
+     * Adds and removes POIs. All computed grids are updated with the changes
+     * instead of being recomputed. Must be called from the UI thread.
+     *
+     * @param added
+     * @param removed
+     */
+    public void update(Collection<PointOfInterest> added, Collection<PointOfInterest> removed) {
+        final ArrayList<PointOfInterest> addedCopy = new ArrayList<PointOfInterest>(added);
+        final ArrayList<PointOfInterest> removedCopy = new ArrayList<PointOfInterest>(removed);
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < mGrids.size(); i++) {
+                    final int zoom = mGrids.keyAt(i);
+                    final LongSparseArray<Cell> grid = mGrids.valueAt(i);
+                    for (PointOfInterest poi : removedCopy) {
+                        final long key = key(poi, zoom);
+                        Cell cell = grid.get(key);
+                        if (cell != null) {
+                            cell.remove(poi);
+                            if (cell.mPois.isEmpty()) {
+                                grid.remove(key);
+                            }
+                        }
+                    }
+                    for (PointOfInterest poi : addedCopy) {
+                        addToGrid(grid, poi, zoom);
+                    }
+                }
+                mPois.removeAll(removedCopy);
+                mPois.addAll(addedCopy);
+            }
+        });
+    }
+
+    /**
+     * Computes the clusters of all POIs at the zoom level and passes them to
+     * the callback. Must be called from the UI thread.
+     *
+     * @param zoom
+     */
+    public void cluster(final int zoom) {
+        new AsyncTask<Void, Void, ArrayList<Cluster>>() {
+            @Override
+            protected ArrayList<Cluster> doInBackground(Void... params) {
+                LongSparseArray<Cell> grid = mGrids.get(zoom);
+                if (grid == null) {
+                    grid = new LongSparseArray<Cell>();
+                    for (PointOfInterest poi : mPois) {
+                        addToGrid(grid, poi, zoom);
+                    }
+                    mGrids.put(zoom, grid);
+                }
+
+                ArrayList<Cluster> clusters = new ArrayList<Cluster>(grid.size());
+                for (int i = 0; i < grid.size(); i++) {
+                    clusters.add(grid.valueAt(i).toCluster(grid.keyAt(i)));
+                }
+                return clusters;
+            }
+
+            @Override
+            protected void onPostExecute(ArrayList<Cluster> clusters) {
+                mCallback.onClustersComputed(zoom, clusters);
+            }
+        }.executeOnExecutor(AsyncTask.SERIAL_EXECUTOR);
+    }
+
+    private static void execute(Runnable runnable) {
+        AsyncTask.SERIAL_EXECUTOR.execute(runnable);
+    }
+
+    private static void addToGrid(LongSparseArray<Cell> grid, PointOfInterest poi, int zoom) {
+        final long key = key(poi, zoom);
+        Cell cell = grid.get(key);
+        if (cell == null) {
+            cell = new Cell();
+            grid.put(key, cell);
+        }
+        cell.add(poi);
+    }
+
+    /**
+     * Returns the key of the grid cell that contains the POI at the zoom
+     * level. Above {@link #MAX_CLUSTER_ZOOM} every POI has its own cell, keyed
+     * by its ID like the cluster of a single POI.
+     */
+    private static long key(PointOfInterest poi, int zoom) {
+        if (zoom > MAX_CLUSTER_ZOOM) {
+            return poi.getId();
+        }
+
+        final double lat = poi.getLatitude();
+        final double lng = poi.getLongitude();
+
+        // Number of cells along each axis of the world
+        final long cells = (256L << zoom) / CELL_SIZE_DP;
+
+        // Web mercator projection of the location onto the unit square
+        double x = (lng + 180) / 360;
+        double sin = Math.sin(Math.toRadians(lat));
+        double y = 0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI);
+
+        long column = Math.max(0, Math.min(cells - 1, (long) (x * cells)));
+        long row = Math.max(0, Math.min(cells - 1, (long) (y * cells)));
+        return row * cells + column;
+    }
+}
@@ -17,42 +17,45 @@
 package com.example.google.touroflondon;
 
 import com.example.google.R;
-import com.example.google.touroflondon.data.PoiCursorLoader;
-import com.example.google.touroflondon.data.TourContract;
-import com.example.google.touroflondon.data.TourContract.PoiEntry;
+import com.example.google.touroflondon.data.PoiStore;
+import com.example.google.touroflondon.data.TourSnapshot;
+import com.example.google.touroflondon.data.TourSnapshotLoader;
+import com.google.android.gms.maps.model.LatLng;
 
 import android.app.Activity;
 import android.app.ListFragment;
 import android.app.LoaderManager;
+import android.content.Context;
 import android.content.Loader;
-import android.database.Cursor;
 import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.BaseAdapter;
 import android.widget.ListView;
-import android.widget.SimpleCursorAdapter;
+import android.widget.TextView;
+
+import java.util.ArrayList;
 
 /**
  * A Fragment that displays a list of points of interest. Data is loaded using a
- * {@link LoaderManager} and displayed in a 2-row layout per entry (title and
- * description).
+ * {@link LoaderManager} from the {@link TourSnapshot} that is shared with the
+ * map and displayed in a 2-row layout per entry (title and description).
  */
-public class PoiListFragment extends ListFragment implements LoaderManager.LoaderCallbacks<Cursor> {
+public class PoiListFragment extends ListFragment implements
+        LoaderManager.LoaderCallbacks<TourSnapshot>,
+        AbsListView.OnScrollListener {
+
+    // Number of items below the visible items whose thumbnails are prefetched
+    private static final int PREFETCH_AHEAD = 4;
 
     // Adapter this ListFragment is backed by
-    private SimpleCursorAdapter mAdapter;
+    private PoiAdapter mAdapter;
 
     // Callback to Activity for user interaction
     private OnPoiSelectedListener mCallback;
 
-    // Database projection
-    private final static String[] projection = {
-            PoiEntry._ID,
-            PoiEntry.COLUMN_NAME_TITLE,
-            PoiEntry.COLUMN_NAME_DESCRIPTION
-    };
-
     /**
      * Callback interface that must be implemented by attaching Activity.
      */
@@ -61,8 +64,17 @@ public class PoiListFragment extends ListFragment implements LoaderManager.Loade
          * Called when the user selects a POI from the list.
          * 
          * @param id
+         * @param location
+         */
+        public void onPoiSelected(long id, LatLng location);
+
+        /**
+         * Called when the list has settled, so that the thumbnails of the
+         * shown POIs can be prefetched.
+         *
+         * @param pictureUrls The picture URLs of the shown POIs, in order
          */
-        public void onPoiSelected(String id);
+        public void onPoisShown(ArrayList<String> pictureUrls);
     }
 
     @Override
@@ -70,19 +82,12 @@ public class PoiListFragment extends ListFragment implements LoaderManager.Loade
         super.onCreate(savedInstanceState);
 
         /*
-         * Initialise the adapter and map the title and description columns to
-         * the two rows in the simple 2-row layout. Initially the cursor is set
-         * to null and updated once the data has been loaded in #onLoadFinished.
+         * Initialise the adapter, which shows the title and description of
+         * each POI in the two rows in the simple 2-row layout. Initially the
+         * list is empty and updated once the data has been loaded in
+         * #onLoadFinished.
          */
-        mAdapter = new SimpleCursorAdapter(getActivity(), R.layout.tour_simple_list_item_2,
-                null,
-                new String[] {
-                        TourContract.PoiEntry.COLUMN_NAME_TITLE,
-                        TourContract.PoiEntry.COLUMN_NAME_DESCRIPTION
-                },
-                new int[] {
-                        android.R.id.text1, android.R.id.text2
-                }, 0);
+        mAdapter = new PoiAdapter(getActivity());
 
         setListAdapter(mAdapter);
 
@@ -106,9 +111,20 @@ public class PoiListFragment extends ListFragment implements LoaderManager.Loade
     public void onResume() {
         super.onResume();
 
-        // initialise the data loader
-        getLoaderManager().initLoader(0, null, this);
+        // initialise the data loader, unless no data has been imported yet
+        if (Util.hasDataLoaded(getActivity())) {
+            getLoaderManager().initLoader(0, null, this);
+        }
+
+    }
 
+    /**
+     * Called once new tour data has been imported into the database.
+     */
+    public void onDataLoaded() {
+        if (isAdded()) {
+            getLoaderManager().restartLoader(0, null, this);
+        }
     }
 
     @Override
@@ -120,32 +136,125 @@ public class PoiListFragment extends ListFragment implements LoaderManager.Loade
         return v;
     }
 
+    @Override
+    public void onViewCreated(View view, Bundle savedInstanceState) {
+        super.onViewCreated(view, savedInstanceState);
+        getListView().setOnScrollListener(this);
+    }
+
+    @Override
+    public void onScrollStateChanged(AbsListView view, int scrollState) {
+        // Only prefetch once the list has stopped scrolling
+        if (scrollState == SCROLL_STATE_IDLE) {
+            prefetchShown();
+        }
+    }
+
+    @Override
+    public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+            int totalItemCount) {
+    }
+
+    /**
+     * Notifies the callback of the picture URLs of the visible items and of
+     * the next few items below them.
+     */
+    private void prefetchShown() {
+        if (mAdapter.isEmpty()) {
+            return;
+        }
+        ListView list = getListView();
+        int first = Math.max(list.getFirstVisiblePosition(), 0);
+        int last = Math.min(Math.max(list.getLastVisiblePosition(), first) + PREFETCH_AHEAD,
+                mAdapter.getCount() - 1);
+
+        ArrayList<String> urls = new ArrayList<String>();
+        for (int i = first; i <= last; i++) {
+            urls.add(mAdapter.getStore().getPictureUrl(i));
+        }
+        mCallback.onPoisShown(urls);
+    }
+
     @Override
     public void onListItemClick(ListView l, View v, int position, long id) {
 
-        // Get the title of the selected item and notify the callback
-        Cursor c = (Cursor) mAdapter.getItem(position);
-        String title = c.getString(c.getColumnIndex(projection[1]));
-        mCallback.onPoiSelected(title);
+        // Get the location of the selected item and notify the callback with
+        // its ID
+        mCallback.onPoiSelected(id, mAdapter.getStore().getLocation(position));
     }
 
     @Override
-    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-        // create a new cursor loader that retrieves a list of all POIs.
-        return new PoiCursorLoader(getActivity(), projection);
+    public Loader<TourSnapshot> onCreateLoader(int id, Bundle args) {
+        // create a new loader that returns the snapshot of all POIs.
+        return new TourSnapshotLoader(getActivity());
 
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor c) {
-        // set the new cursor
-        mAdapter.swapCursor(c);
+    public void onLoadFinished(Loader<TourSnapshot> loader, TourSnapshot snapshot) {
+        // show the POIs of the new snapshot
+        mAdapter.setStore(snapshot.getPoiStore());
+        prefetchShown();
     }
 
     @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        // remove the old cursor
-        mAdapter.swapCursor(null);
+    public void onLoaderReset(Loader<TourSnapshot> loader) {
+        // remove the old POIs
+        mAdapter.setStore(null);
     }
 
+    /**
+     * Adapter of the POIs of a {@link TourSnapshot}. Items are identified by
+     * the ID of their POI. Rows are bound straight from the {@link PoiStore},
+     * without creating a {@link PointOfInterest} for each POI.
+     */
+    private static class PoiAdapter extends BaseAdapter {
+        private final LayoutInflater mInflater;
+        private PoiStore mStore;
+
+        PoiAdapter(Context context) {
+            mInflater = LayoutInflater.from(context);
+        }
+
+        void setStore(PoiStore store) {
+            mStore = store;
+            notifyDataSetChanged();
+        }
+
+        PoiStore getStore() {
+            return mStore;
+        }
+
+        @Override
+        public int getCount() {
+            return mStore != null ? mStore.size() : 0;
+        }
+
+        @Override
+        public PointOfInterest getItem(int position) {
+            return mStore.get(position);
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return mStore.getId(position);
+        }
+
+        @Override
+        public boolean hasStableIds() {
+            return true;
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            View view = convertView;
+            if (view == null) {
+                view = mInflater.inflate(R.layout.tour_simple_list_item_2, parent, false);
+            }
+            ((TextView) view.findViewById(android.R.id.text1)).setText(mStore.getTitle(position));
+            ((TextView) view.findViewById(android.R.id.text2))
+                    .setText(mStore.getDescription(position));
+            return view;
+        }
+    }
 }
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.google.touroflondon;
+
+import android.support.v4.util.LongSparseArray;
+
+import java.util.ArrayList;
+
+/**
+ * Keeps track of the POIs shown on the map across loads. Each load passes its
+ * POIs to {@link #add(PointOfInterest)} and {@link #finish()} returns the
+ * differences to the previous load by {@link PointOfInterest#getId()}, so that
+ * only the markers of POIs that have changed need to be touched.
+ */
+public class PoiReconciler {
+
+    /**
+     * The differences between two loads.
+     */
+    public static class Changes {
+        /** POIs that were not part of the previous load. */
+        public final ArrayList<PointOfInterest> mAdded = new ArrayList<PointOfInterest>();
+
+        /** POIs of the previous load that are no longer loaded. */
+        public final ArrayList<PointOfInterest> mRemoved = new ArrayList<PointOfInterest>();
+
+        /** Previous versions of POIs whose content has changed. */
+        public final ArrayList<PointOfInterest> mUpdatedOld = new ArrayList<PointOfInterest>();
+
+        /** New versions of POIs whose content has changed, same order. */
+        public final ArrayList<PointOfInterest> mUpdatedNew = new ArrayList<PointOfInterest>();
+
+        /**
+         * Returns true if nothing has changed.
+         */
+        public boolean isEmpty() {
+            return mAdded.isEmpty() && mRemoved.isEmpty() && mUpdatedNew.isEmpty();
+        }
+    }
+
+    // The POIs of the last finished load, by id
+    private LongSparseArray<PointOfInterest> mCurrent = new LongSparseArray<PointOfInterest>();
+
+    // The POIs of the running load, by id
+    private LongSparseArray<PointOfInterest> mNext = new LongSparseArray<PointOfInterest>();
+
+    private Changes mChanges = new Changes();
+
+    /**
+     * Adds a POI to the running load.
+     *
+     * @param poi
+     */
+    public void add(PointOfInterest poi) {
+        PointOfInterest previous = mCurrent.get(poi.getId());
+        if (previous != null) {
+            mCurrent.remove(poi.getId());
+        }
+        if (previous == null) {
+            mNext.put(poi.getId(), poi);
+            mChanges.mAdded.add(poi);
+        } else if (previous.hasSameContent(poi)) {
+            // Keep the existing instance, it is referenced by the markers
+            mNext.put(poi.getId(), previous);
+        } else {
+            mNext.put(poi.getId(), poi);
+            mChanges.mUpdatedOld.add(previous);
+            mChanges.mUpdatedNew.add(poi);
+        }
+    }
+
+    /**
+     * Finishes the running load and returns its differences to the previous
+     * load. All POIs of the previous load that have not been added again are
+     * reported as removed.
+     *
+     * @return
+     */
+    public Changes finish() {
+        Changes changes = mChanges;
+        for (int i = 0; i < mCurrent.size(); i++) {
+            changes.mRemoved.add(mCurrent.valueAt(i));
+        }
+
+        mCurrent.clear();
+        LongSparseArray<PointOfInterest> current = mNext;
+        mNext = mCurrent;
+        mCurrent = current;
+        mChanges = new Changes();
+        return changes;
+    }
+}
@@ -20,9 +20,12 @@ import com.example.google.R;
 import com.google.android.gms.maps.model.LatLng;
 
 /**
- * A simple struct containing information about a point of interest (POI).
+ * A point of interest (POI). Its values are read through accessors, so that
+ * a POI can be a lightweight view of a row in a store that only decodes a
+ * value when it is requested, see
+ * {@link com.example.google.touroflondon.data.PoiStore}.
  */
-public class PointOfInterest {
+public abstract class PointOfInterest {
 
     /**
      * Type of the point of interest.
@@ -44,35 +47,58 @@ public class PointOfInterest {
         }
     }
 
+    /** Row ID of the POI in the database, stable across loads. */
+    public abstract long getId();
+
     /** Title of the POI. */
-    public final String mTitle;
+    public abstract String getTitle();
 
     /** A short (1-2 sentence) description of the POI. */
-    public final String mDescription;
+    public abstract String getDescription();
 
     /** General category to which this POI belongs. */
-    public final Type mType;
+    public abstract Type getType();
+
+    /** Latitude of the POI in degrees. */
+    public abstract double getLatitude();
 
-    /** The location of this POI. */
-    public final LatLng mLocation;
+    /** Longitude of the POI in degrees. */
+    public abstract double getLongitude();
 
     /** The URL to a thumbnail image of this POI. */
-    public final String mPictureUrl;
+    public abstract String getPictureUrl();
 
     /** A copyright attribution for the thumbnail image. */
-    public final String mPictureAttr;
-
-    public PointOfInterest(String title,
-            String description,
-            Type type,
-            String pictureAttr,
-            String picture,
-            LatLng location) {
-        this.mTitle = title;
-        this.mDescription = description;
-        this.mType = type;
-        this.mPictureAttr = pictureAttr;
-        this.mPictureUrl = picture;
-        this.mLocation = location;
+    public abstract String getPictureAttr();
+
+    /**
+     * Returns the location of this POI. A new object is returned on each
+     * call, use {@link #getLatitude()} and {@link #getLongitude()} where
+     * possible.
+     *
+     * @return
+     */
+    public LatLng getLocation() {
+        return new LatLng(getLatitude(), getLongitude());
+    }
+
+    /**
+     * Returns true if both POIs would be shown the same way.
+     *
+     * @param other
+     * @return
+     */
+    public boolean hasSameContent(PointOfInterest other) {
+        return equals(getTitle(), other.getTitle())
+                && equals(getDescription(), other.getDescription())
+                && getType() == other.getType()
+                && getLatitude() == other.getLatitude()
+                && getLongitude() == other.getLongitude()
+                && equals(getPictureUrl(), other.getPictureUrl())
+                && equals(getPictureAttr(), other.getPictureAttr());
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
     }
 }
@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.google.touroflondon;
+
+import com.example.google.touroflondon.image.ImageScheduler;
+import com.example.google.touroflondon.image.ThumbnailCache;
+import com.example.google.touroflondon.image.ThumbnailFetcher;
+import com.google.android.gms.maps.model.LatLng;
+
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Warms the thumbnail cache before info windows are opened, so that the first
+ * tap on a POI does not show the loading placeholder. Thumbnails are
+ * prefetched for the POIs closest to the camera target and for the items shown
+ * in the POI list with {@link ImageScheduler.Priority#PREFETCH}, and for the
+ * POIs ahead along the route with {@link ImageScheduler.Priority#BACKGROUND}.
+ * <p>
+ * Each prefetch pass replaces the previous one. The thumbnails loaded by all
+ * passes count against a budget of a {@link #BUDGET_DIVIDER}th of the memory
+ * cache, and prefetching stops once it is used up, so that prefetching does not
+ * evict thumbnails that have been viewed. The budget is only reset once the
+ * memory cache has been trimmed or the data has changed, see {@link #reset()}.
+ * Only a few thumbnails are in flight at a time. {@link #pause()} cancels the
+ * running pass while the user is interacting with the map.
+ * <p>
+ * The prefetcher must be registered with
+ * {@link android.content.Context#registerComponentCallbacks} to learn about
+ * trims of the memory cache.
+ */
+public class ThumbnailPrefetcher implements ThumbnailFetcher.Listener, ComponentCallbacks2 {
+
+    /** Fraction of the memory cache that prefetched thumbnails may use. */
+    private static final int BUDGET_DIVIDER = 4;
+
+    /** Maximum number of prefetches in flight. */
+    private static final int MAX_IN_FLIGHT = 2;
+
+    /** Number of POIs closest to the camera target to prefetch. */
+    private static final int NEAREST_COUNT = 6;
+
+    /** Distance along the route ahead of the camera target to prefetch. */
+    private static final double ROUTE_AHEAD_METERS = 1000;
+
+    /** Maximum distance of a POI from the route to count as on the route. */
+    private static final double ROUTE_RADIUS_METERS = 150;
+
+    private static final double METERS_PER_DEGREE = 111320;
+
+    private final ThumbnailCache mCache;
+    private final ThumbnailFetcher mFetcher;
+
+    private List<LatLng> mRoute;
+
+    // URLs of the running pass that have not been fetched yet, in order
+    private final LinkedHashMap<String, ImageScheduler.Priority> mPending =
+            new LinkedHashMap<String, ImageScheduler.Priority>();
+
+    private int mInFlight = 0;
+
+    // Size of the thumbnails prefetched since the last reset, in bytes
+    private int mBytes = 0;
+    private final int mBudgetBytes;
+
+    public ThumbnailPrefetcher(ThumbnailCache cache, ThumbnailFetcher fetcher) {
+        mCache = cache;
+        mFetcher = fetcher;
+        mBudgetBytes = cache.getMemoryCacheMaxSize() / BUDGET_DIVIDER;
+    }
+
+    /**
+     * Sets the route of the tour, in order.
+     *
+     * @param route
+     */
+    public void setRoute(List<LatLng> route) {
+        mRoute = route;
+    }
+
+    /**
+     * Prefetches the thumbnails of the POIs closest to the target and of the
+     * POIs ahead of the target along the route.
+     *
+     * @param target
+     * @param pois
+     */
+    public void prefetchAround(final LatLng target, List<PointOfInterest> pois) {
+        pause();
+
+        ArrayList<PointOfInterest> nearest = new ArrayList<PointOfInterest>(pois);
+        Collections.sort(nearest, new Comparator<PointOfInterest>() {
+            @Override
+            public int compare(PointOfInterest lhs, PointOfInterest rhs) {
+                return Double.compare(distance(target, lhs),
+                        distance(target, rhs));
+            }
+        });
+        for (int i = 0; i < nearest.size() && i < NEAREST_COUNT; i++) {
+            add(nearest.get(i).getPictureUrl(), ImageScheduler.Priority.PREFETCH);
+        }
+
+        if (mRoute != null && !mRoute.isEmpty()) {
+            // Walk along the route from the point closest to the target
+            int start = 0;
+            for (int i = 1; i < mRoute.size(); i++) {
+                if (distance(target, mRoute.get(i)) < distance(target, mRoute.get(start))) {
+                    start = i;
+                }
+            }
+            double walked = 0;
+            for (int i = start; i < mRoute.size() && walked < ROUTE_AHEAD_METERS; i++) {
+                if (i > start) {
+                    walked += distance(mRoute.get(i - 1), mRoute.get(i));
+                }
+                for (PointOfInterest poi : pois) {
+                    if (distance(mRoute.get(i), poi) < ROUTE_RADIUS_METERS) {
+                        add(poi.getPictureUrl(), ImageScheduler.Priority.BACKGROUND);
+                    }
+                }
+            }
+        }
+
+        next();
+    }
+
+    /**
+     * Starts a new pass that prefetches the thumbnails of the URLs, in order.
+     * The previous pass is cancelled.
+     *
+     * @param urls
+     */
+    public void prefetch(List<String> urls) {
+        pause();
+        for (String url : urls) {
+            add(url, ImageScheduler.Priority.PREFETCH);
+        }
+        next();
+    }
+
+    /**
+     * Cancels the running pass. The thumbnails it has loaded still count
+     * against the budget.
+     */
+    public void pause() {
+        mFetcher.cancel(this);
+        mPending.clear();
+        mInFlight = 0;
+    }
+
+    /**
+     * Resets the budget, as the prefetched thumbnails are no longer needed.
+     * Called when the data has changed.
+     */
+    public void reset() {
+        mBytes = 0;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            // The memory cache has been trimmed, the prefetched thumbnails
+            // are no longer in it
+            pause();
+            reset();
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        onTrimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    @Override
+    public void onThumbnailFetched(String url, Bitmap bitmap) {
+        mInFlight--;
+        if (bitmap != null) {
+            mBytes += bitmap.getByteCount();
+        }
+        next();
+    }
+
+    /**
+     * Adds the URL to the running pass, unless it is already part of the pass
+     * or cached.
+     */
+    private void add(String url, ImageScheduler.Priority priority) {
+        if (url != null && !mPending.containsKey(url) && !mCache.contains(url)) {
+            mPending.put(url, priority);
+        }
+    }
+
+    private void next() {
+        Iterator<Map.Entry<String, ImageScheduler.Priority>> iter = mPending.entrySet()
+                .iterator();
+        while (iter.hasNext() && mInFlight < MAX_IN_FLIGHT && mBytes < mBudgetBytes) {
+            Map.Entry<String, ImageScheduler.Priority> entry = iter.next();
+            iter.remove();
+            mInFlight++;
+            mFetcher.fetch(entry.getKey(), this, this, entry.getValue());
+        }
+    }
+
+    /**
+     * Returns the approximate distance between the two locations in meters.
+     */
+    private static double distance(LatLng a, LatLng b) {
+        double dLat = a.latitude - b.latitude;
+        double dLng = (a.longitude - b.longitude) * Math.cos(Math.toRadians(a.latitude));
+        return Math.sqrt(dLat * dLat + dLng * dLng) * METERS_PER_DEGREE;
+    }
+
+    /**
+     * Returns the approximate distance between the location and the POI in
+     * meters, without creating a location for the POI.
+     */
+    private static double distance(LatLng a, PointOfInterest poi) {
+        double dLat = a.latitude - poi.getLatitude();
+        double dLng = (a.longitude - poi.getLongitude()) * Math.cos(Math.toRadians(a.latitude));
+        return Math.sqrt(dLat * dLat + dLng * dLng) * METERS_PER_DEGREE;
+    }
+}
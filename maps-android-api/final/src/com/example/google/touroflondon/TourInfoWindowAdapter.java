@@ -16,32 +16,78 @@
 
 package com.example.google.touroflondon;
 
-import com.android.volley.RequestQueue;
-import com.android.volley.Response;
-import com.android.volley.toolbox.ImageRequest;
-import com.android.volley.toolbox.Volley;
 import com.example.google.R;
+import com.example.google.touroflondon.image.ImageScheduler;
+import com.example.google.touroflondon.image.ThumbnailCache;
+import com.example.google.touroflondon.image.ThumbnailFetcher;
 import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.model.Marker;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.Bitmap.Config;
-import android.util.LruCache;
+import android.graphics.Canvas;
+import android.support.v4.util.LruCache;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.widget.ImageView;
 import android.widget.TextView;
 
-import java.util.Map;
-
 /**
  * An Info Window Adapter that returns a custom info window with a thumbnail and
  * description about each Point of Interest.
+ * <p>
+ * If {@link #RENDER_CACHE_ENABLED} is set, the contents are drawn to a bitmap
+ * that is cached by POI and thumbnail state, and an info window that is opened
+ * again is shown from its bitmap without binding, measuring and laying out the
+ * contents. The time spent rendering is logged.
  */
 public class TourInfoWindowAdapter implements GoogleMap.InfoWindowAdapter {
 
-    private static final int CACHE_SIZE_BYTES = 4 * 1024 * 1024; // 4 MB
+    private static final String TAG = "TourInfoWindowAdapter";
+
+    /** If false, the contents are bound and laid out for every info window. */
+    private static final boolean RENDER_CACHE_ENABLED = true;
+
+    private static final int RENDER_CACHE_SIZE_BYTES = 3 * 1024 * 1024; // 3 MB
+
+    /**
+     * Looks up the point of interest shown by a marker.
+     */
+    public interface PoiProvider {
+        /**
+         * Returns the POI of the marker, or null if the marker does not show
+         * a single POI.
+         *
+         * @param marker
+         * @return
+         */
+        public PointOfInterest getPoi(Marker marker);
+    }
+
+    /**
+     * The child views of the contents view, looked up once.
+     */
+    private static class ViewHolder {
+        ImageView mThumbnail;
+        TextView mCaption;
+        TextView mTitle;
+        TextView mSnippet;
+    }
+
+    /**
+     * The contents of an info window drawn to a bitmap.
+     */
+    private static class Rendered {
+        /** The POI that was rendered, to detect changed POIs. */
+        final PointOfInterest mPoi;
+        final Bitmap mBitmap;
+
+        Rendered(PointOfInterest poi, Bitmap bitmap) {
+            this.mPoi = poi;
+            this.mBitmap = bitmap;
+        }
+    }
 
     /**
      * The template view for the custom info contents. We can reuse this view
@@ -50,39 +96,59 @@ public class TourInfoWindowAdapter implements GoogleMap.InfoWindowAdapter {
      */
     private final View mContents;
 
-    /**
-     * A map from the title to the PointOfInterest object containing more
-     * information about the POI.
-     */
-    private final Map<String, PointOfInterest> mData;
+    /** The child views of {@link #mContents}. */
+    private final ViewHolder mHolder = new ViewHolder();
+
+    /** Shows a rendered bitmap of the contents. */
+    private final ImageView mRenderedView;
+
+    /** Rendered contents by POI ID and thumbnail state. */
+    private final LruCache<Long, Rendered> mRendered;
+
+    /** Provides the PointOfInterest object of each marker. */
+    private final PoiProvider mData;
+
+    /** A memory and disk cache of the thumbnail images, by picture URL. */
+    private final ThumbnailCache mThumbnails;
+
+    /** Fetches missing thumbnails, at most once per URL at a time. */
+    private final ThumbnailFetcher mFetcher;
 
-    /** An in-memory cache of the thumbnail images of the points of interest. */
-    private final LruCache<PointOfInterest, Bitmap> mThumbnails;
+    /** The marker whose info window was rendered last. */
+    private Marker mShownMarker;
 
-    /** The request queue used to add the thumbnail image requests. */
-    private final RequestQueue mRequestQueue;
+    // Render statistics, logged if debug logging is enabled for the TAG
+    private int mRenders = 0;
+    private int mRenderCacheHits = 0;
+    private long mRenderNanos = 0;
 
-    public TourInfoWindowAdapter(Context context, Map<String, PointOfInterest> poiData) {
+    public TourInfoWindowAdapter(Context context, PoiProvider poiData) {
         // Inflate the custom info contents view just once and reuse it each
         // time an info window needs to be
         // generated.
         mContents = ((LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE))
                 .inflate(R.layout.custom_info_contents, null);
+        mHolder.mThumbnail = (ImageView) mContents.findViewById(R.id.thumbnail);
+        mHolder.mCaption = (TextView) mContents.findViewById(R.id.caption);
+        mHolder.mTitle = (TextView) mContents.findViewById(R.id.title);
+        mHolder.mSnippet = (TextView) mContents.findViewById(R.id.snippet);
 
-        // We maintain an in-memory LRU cache of the thumbnails so that they can
-        // easily be recalled again.
-        mThumbnails = new LruCache<PointOfInterest, Bitmap>(CACHE_SIZE_BYTES) {
+        mRenderedView = new ImageView(context);
+        mRendered = new LruCache<Long, Rendered>(RENDER_CACHE_SIZE_BYTES) {
             @Override
-            protected int sizeOf(PointOfInterest key, Bitmap value) {
-                return value.getByteCount();
-
+            protected int sizeOf(Long key, Rendered value) {
+                return value.mBitmap.getByteCount();
             }
         };
 
-        // Setup the request queue for fetching the thumbnail images of the
-        // Points of Interest.
-        mRequestQueue = Volley.newRequestQueue(context);
-        mRequestQueue.start();
+        // We maintain a memory and disk cache of the thumbnails so that they
+        // can easily be recalled again, even after a restart.
+        mThumbnails = ThumbnailCache.getInstance(context);
+
+        // Fetch the thumbnail images of the Points of Interest through the
+        // image scheduler shared by the whole app.
+        mFetcher = new ThumbnailFetcher(ImageScheduler.getInstance(), mThumbnails, context
+                .getResources().getDimensionPixelSize(R.dimen.thumbnail_size));
 
         this.mData = poiData;
     }
@@ -98,7 +164,7 @@ public class TourInfoWindowAdapter implements GoogleMap.InfoWindowAdapter {
 
     @Override
     public View getInfoContents(final Marker marker) {
-        final PointOfInterest poi = mData.get(marker.getTitle());
+        final PointOfInterest poi = mData.getPoi(marker);
 
         // If the data has not yet been loaded, we may not be able to get the
         // POI. (Note it happens that this is not
@@ -109,47 +175,143 @@ public class TourInfoWindowAdapter implements GoogleMap.InfoWindowAdapter {
             return null;
         }
 
-        // Fetch the thumbnail if we don't have one already.
-        if (mThumbnails.get(poi) == null) {
-            mRequestQueue.add(
-                    new ImageRequest(poi.mPictureUrl, new Response.Listener<Bitmap>() {
-                        @Override
-                        public void onResponse(Bitmap bitmap) {
-                            mThumbnails.put(poi, bitmap);
-                            // Don't refresh the info window if the info window
-                            // is not currently shown.
-                            if (marker.isInfoWindowShown()) {
-                                marker.showInfoWindow();
-                            }
-                            ;
-                        }
-                    }, 256, 256, Config.ARGB_4444, null));
+        // Only one info window is shown at a time, so the thumbnail of the
+        // previous marker is no longer needed.
+        if (mShownMarker != null && !mShownMarker.equals(marker)) {
+            mFetcher.cancel(mShownMarker);
+        }
+        mShownMarker = marker;
+
+        // Fetch the thumbnail if we don't have one in memory already, first
+        // from the disk cache and then from the network.
+        final Bitmap thumbnail = mThumbnails.get(poi.getPictureUrl());
+        if (thumbnail == null) {
+            mFetcher.fetch(poi.getPictureUrl(), marker, new ThumbnailFetcher.Listener() {
+                @Override
+                public void onThumbnailFetched(String url, Bitmap bitmap) {
+                    if (bitmap != null) {
+                        refresh(marker);
+                    }
+                }
+            }, ImageScheduler.Priority.VISIBLE);
         }
 
         // Return the rendered view.
-        return render(poi);
+        return render(poi, thumbnail);
+    }
+
+    /**
+     * Returns the fetcher of the thumbnails, so that thumbnails can be
+     * prefetched through the same requests.
+     */
+    public ThumbnailFetcher getFetcher() {
+        return mFetcher;
     }
 
     /**
-     * Renders the POI to the contents view.
+     * Cancels the thumbnail fetch of the info window that was shown last.
+     * Must be called when the info window is closed.
      */
-    private View render(PointOfInterest poi) {
-        Bitmap bitmap = mThumbnails.get(poi);
+    public void onInfoWindowClosed() {
+        if (mShownMarker != null) {
+            mFetcher.cancel(mShownMarker);
+            mShownMarker = null;
+        }
+    }
+
+    /**
+     * Shows the info window again so that the thumbnail is rendered.
+     */
+    private static void refresh(Marker marker) {
+        // Don't refresh the info window if the info window is not currently
+        // shown.
+        if (marker.isInfoWindowShown()) {
+            marker.showInfoWindow();
+        }
+    }
+
+    /**
+     * Renders the POI, either to the contents view or, if the render cache is
+     * enabled, to a bitmap shown by {@link #mRenderedView}.
+     */
+    private View render(PointOfInterest poi, Bitmap bitmap) {
+        final long start = System.nanoTime();
+        View view;
+        if (RENDER_CACHE_ENABLED) {
+            final long key = renderKey(poi, bitmap != null);
+            Rendered rendered = mRendered.get(key);
+            if (rendered != null && rendered.mPoi == poi) {
+                mRenderCacheHits++;
+            } else {
+                bind(poi, bitmap);
+                rendered = new Rendered(poi, draw(mContents));
+                mRendered.put(key, rendered);
+                // Don't hold on to the thumbnail, so that it can be collected
+                // once it has been evicted from the cache.
+                mHolder.mThumbnail.setImageDrawable(null);
+            }
+            mRenderedView.setImageBitmap(rendered.mBitmap);
+            view = mRenderedView;
+        } else {
+            bind(poi, bitmap);
+            view = mContents;
+        }
+
+        mRenders++;
+        mRenderNanos += System.nanoTime() - start;
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, toString());
+        }
+        return view;
+    }
+
+    /**
+     * Binds the POI to the contents view.
+     */
+    private void bind(PointOfInterest poi, Bitmap bitmap) {
         if (bitmap != null) {
             // If we have already downloaded the image, set the image and the
             // attribute.
-            ((ImageView) mContents.findViewById(R.id.thumbnail)).setImageBitmap(bitmap);
-            ((TextView) mContents.findViewById(R.id.caption)).setText(poi.mPictureAttr);
+            mHolder.mThumbnail.setImageBitmap(bitmap);
+            mHolder.mCaption.setText(poi.getPictureAttr());
         } else {
             // If we don't yet have the bitmap, set a placeholder image and
             // attribute.
-            ((ImageView) mContents.findViewById(R.id.thumbnail))
-                    .setImageResource(R.drawable.ic_launcher);
-            ((TextView) mContents.findViewById(R.id.caption)).setText(R.string.infowindow_loading);
+            mHolder.mThumbnail.setImageResource(R.drawable.ic_launcher);
+            mHolder.mCaption.setText(R.string.infowindow_loading);
         }
         // Set the title and description.
-        ((TextView) mContents.findViewById(R.id.title)).setText(poi.mTitle);
-        ((TextView) mContents.findViewById(R.id.snippet)).setText(poi.mDescription);
-        return mContents;
+        mHolder.mTitle.setText(poi.getTitle());
+        mHolder.mSnippet.setText(poi.getDescription());
+    }
+
+    /**
+     * Measures and lays out the view at its preferred size and draws it to a
+     * new bitmap.
+     */
+    private static Bitmap draw(View view) {
+        final int unspecified = View.MeasureSpec.makeMeasureSpec(0,
+                View.MeasureSpec.UNSPECIFIED);
+        view.measure(unspecified, unspecified);
+        view.layout(0, 0, view.getMeasuredWidth(), view.getMeasuredHeight());
+
+        Bitmap bitmap = Bitmap.createBitmap(view.getMeasuredWidth(), view.getMeasuredHeight(),
+                Bitmap.Config.ARGB_8888);
+        view.draw(new Canvas(bitmap));
+        return bitmap;
+    }
+
+    @Override
+    public String toString() {
+        return "Rendered " + mRenders + " info windows (" + mRenderCacheHits
+                + " from cache) in " + mRenderNanos / 1000000 + "ms, "
+                + (mRenders > 0 ? mRenderNanos / 1000 / mRenders : 0) + "us avg";
+    }
+
+    /**
+     * Returns the key of the rendered contents of the POI in the render cache.
+     */
+    private static long renderKey(PointOfInterest poi, boolean hasThumbnail) {
+        return poi.getId() << 1 | (hasThumbnail ? 1 : 0);
     }
 }
@@ -18,39 +18,72 @@ package com.example.google.touroflondon;
 
 import com.example.google.R;
 import com.example.google.touroflondon.data.MapLoaderCallbacks;
+import com.example.google.touroflondon.image.ThumbnailCache;
 import com.google.android.gms.maps.CameraUpdate;
 import com.google.android.gms.maps.CameraUpdateFactory;
 import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.MapFragment;
-import com.google.android.gms.maps.model.BitmapDescriptorFactory;
 import com.google.android.gms.maps.model.CameraPosition;
 import com.google.android.gms.maps.model.LatLng;
 import com.google.android.gms.maps.model.LatLngBounds;
 import com.google.android.gms.maps.model.Marker;
 import com.google.android.gms.maps.model.MarkerOptions;
+import com.google.android.gms.maps.model.Polyline;
 import com.google.android.gms.maps.model.PolylineOptions;
 
+import android.app.Activity;
 import android.app.LoaderManager;
 import android.app.SearchManager;
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.Handler;
+import android.support.v4.util.LongSparseArray;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
+import android.view.Window;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
+import java.util.List;
 import java.util.Random;
 
 /** An interactive map fragment that shows a tour of London. */
 public class TourMapFragment extends MapFragment
-        implements MapLoaderCallbacks.MapDataLoader, GoogleMap.OnInfoWindowClickListener {
+        implements MapLoaderCallbacks.MapDataLoader, GoogleMap.OnInfoWindowClickListener,
+        GoogleMap.OnCameraChangeListener, GoogleMap.OnMarkerClickListener,
+        GoogleMap.OnMapClickListener,
+        PoiClusterer.Callback, MarkerScheduler.ProgressListener,
+        TourInfoWindowAdapter.PoiProvider {
+
+    private static final String TAG = "TourMapFragment";
 
     /** Key for the map type in the saved instance state. */
     public static final String KEY_MAP_TYPE = "map_type";
 
+    /**
+     * If true, only the POIs within the visible region of the map are loaded
+     * and shown as markers. Otherwise all POIs are loaded at once.
+     */
+    private static final boolean VIEWPORT_LOADING = true;
+
+    /**
+     * Margin around the visible region in which POIs are loaded, as a fraction
+     * of the size of the visible region.
+     */
+    private static final double VIEWPORT_MARGIN = 0.5;
+
+    /** Delay after the last camera change before POIs are reloaded. */
+    private static final long VIEWPORT_DELAY_MS = 300;
+
+    /**
+     * Margin around the visible region in which markers are shown, as a
+     * fraction of the size of the visible region. Markers outside are returned
+     * to the {@link MarkerPool}.
+     */
+    private static final double CULLING_MARGIN = 0.25;
+
     /** Callbacks for loading data into this TourMapFragment */
     private MapLoaderCallbacks mLoaderCallbacks;
 
@@ -67,13 +100,95 @@ public class TourMapFragment extends MapFragment
     public static final LatLng LONDON = new LatLng(51.5, -0.12);
 
     /**
-     * A map from the title of the place to the PointOfInterest object
-     * containing more details about it.
+     * A map from the ID of the place to the PointOfInterest object containing
+     * more details about it.
      */
-    private final Map<String, PointOfInterest> mPoiData = new HashMap<String, PointOfInterest>();
+    private final LongSparseArray<PointOfInterest> mPoiData =
+            new LongSparseArray<PointOfInterest>();
+
+    /**
+     * A map from the ID of the POI to its marker, for all POIs that are shown
+     * on their own.
+     */
+    private LongSparseArray<Marker> mPoiMarkers = new LongSparseArray<Marker>();
+
+    /** Finds the POIs that have changed between loads. */
+    private final PoiReconciler mReconciler = new PoiReconciler();
+
+    /** A map from the cluster key to the marker of clusters of several POIs. */
+    private LongSparseArray<Marker> mClusterMarkers = new LongSparseArray<Marker>();
+
+    /**
+     * A map from the marker ID to the cluster it shows, including clusters of
+     * a single POI.
+     */
+    private HashMap<String, PoiClusterer.Cluster> mMarkerClusters =
+            new HashMap<String, PoiClusterer.Cluster>();
+
+    /** Groups POIs that are close to each other into clusters. */
+    private PoiClusterer mClusterer;
+
+    /** Adds new markers to the map in batches. */
+    private MarkerScheduler mScheduler;
+
+    /** Recycles markers that are no longer shown. */
+    private MarkerPool mPool;
+
+    /** The clusters of the current zoom level, null if not computed yet. */
+    private ArrayList<PoiClusterer.Cluster> mClusters;
 
-    /** A map from the title of the marker to the marker itself. */
-    private final Map<String, Marker> mPoiMarkers = new HashMap<String, Marker>();
+    /** The icons of the POI and cluster markers. */
+    private MarkerIconCache mIconCache;
+
+    /** Renders the info windows and fetches their thumbnails. */
+    private TourInfoWindowAdapter mInfoWindowAdapter;
+
+    /** Warms the thumbnail cache for POIs that are likely to be opened. */
+    private ThumbnailPrefetcher mPrefetcher;
+
+    /**
+     * Whether tour data has been imported, read once when the map is set up
+     * and set once an import has finished.
+     */
+    private boolean mHasData = false;
+
+    /** The zoom level of the clusters shown on the map, -1 if none. */
+    private int mClusterZoom = -1;
+
+    /** The polyline of the route, null if it has not been loaded yet. */
+    private Polyline mRoute;
+
+    /** The bounding box of all POIs, null if it has not been loaded yet. */
+    private LatLngBounds mAllPoiBounds;
+
+    /**
+     * The area for which POIs have been loaded in viewport mode, null if all
+     * POIs have been loaded.
+     */
+    private LatLngBounds mLoadedBounds;
+
+    /** The zoom level at which POIs were last loaded in viewport mode. */
+    private float mLoadedZoom;
+
+    /** True once POIs have been loaded in viewport mode. */
+    private boolean mViewportLoaded = false;
+
+    /** ID of a POI whose info window is shown once its marker is added. */
+    private long mPendingInfoWindow = -1;
+
+    /** Used to delay reloading of POIs until the camera has settled. */
+    private final Handler mHandler = new Handler();
+
+    private final Runnable mCameraIdle = new Runnable() {
+        @Override
+        public void run() {
+            if (VIEWPORT_LOADING) {
+                loadViewport(false);
+            }
+            showClusters();
+            prefetchThumbnails();
+        }
+    };
 
     /** Used for generating random bearings to make camera animations cooler! */
     private final Random mRandom = new Random();
@@ -87,10 +202,40 @@ public class TourMapFragment extends MapFragment
         // has been loaded from the database
         mLoaderCallbacks = new MapLoaderCallbacks(this, getActivity());
 
+        mClusterer = new PoiClusterer(this);
+
         // For the action bar.
         setHasOptionsMenu(true);
     }
 
+    @Override
+    public void onPause() {
+        super.onPause();
+        mHandler.removeCallbacks(mCameraIdle);
+        if (mPrefetcher != null) {
+            mPrefetcher.pause();
+        }
+    }
+
+    @Override
+    public void onDestroyView() {
+        // The markers, their icons and the route belong to the map that is
+        // destroyed with the view. They are created again for the new map
+        // once the view has been recreated.
+        if (mMap != null) {
+            mScheduler.cancel();
+            mPrefetcher.pause();
+            getActivity().getApplicationContext().unregisterComponentCallbacks(mPrefetcher);
+            mIconCache.clear();
+            mPoiMarkers.clear();
+            mClusterMarkers.clear();
+            mMarkerClusters.clear();
+            mRoute = null;
+            mMap = null;
+        }
+        super.onDestroyView();
+    }
+
     @Override
     public void onResume() {
         super.onResume();
@@ -124,6 +269,9 @@ public class TourMapFragment extends MapFragment
             // Check if we were successful in obtaining the map.
             if (mMap != null) {
                 // We can now set up the map.
+                mPool = new MarkerPool(mMap);
+                mScheduler = new MarkerScheduler(mPool, this);
+                mIconCache = new MarkerIconCache(getResources());
 
                 if (mSavedInstanceState == null) {
                     // The map automatically saves the camera position so we
@@ -139,24 +287,167 @@ public class TourMapFragment extends MapFragment
                 // Disable the on screen zoom controls.
                 mMap.getUiSettings().setZoomControlsEnabled(false);
 
-                // load data
-                LoaderManager lm = getLoaderManager();
-                lm.initLoader(MapLoaderCallbacks.TOKEN_POI, null, mLoaderCallbacks);
-                lm.initLoader(MapLoaderCallbacks.TOKEN_ROUTE, null, mLoaderCallbacks);
+                // load data, unless no data has been imported yet. In that
+                // case the data is loaded once the import has finished.
+                mHasData = Util.hasDataLoaded(getActivity());
+                if (mHasData) {
+                    loadData();
+                }
 
                 // Set a custom info window adapter.
-                TourInfoWindowAdapter adapter = new TourInfoWindowAdapter(getActivity(), mPoiData);
-                mMap.setInfoWindowAdapter(adapter);
+                mInfoWindowAdapter = new TourInfoWindowAdapter(getActivity(), this);
+                mMap.setInfoWindowAdapter(mInfoWindowAdapter);
+                mPrefetcher = new ThumbnailPrefetcher(ThumbnailCache.getInstance(getActivity()),
+                        mInfoWindowAdapter.getFetcher());
+                getActivity().getApplicationContext().registerComponentCallbacks(mPrefetcher);
 
                 // Set an on info window click listener.
                 mMap.setOnInfoWindowClickListener(this);
 
+                // Reload the POIs in the visible region and update the
+                // clusters when the camera moves.
+                mMap.setOnCameraChangeListener(this);
+
+                // Zoom into clusters when they are clicked.
+                mMap.setOnMarkerClickListener(this);
+
+                // Clicks on the map close the info window.
+                mMap.setOnMapClickListener(this);
+
                 // Turn on the my location layer.
                 mMap.setMyLocationEnabled(true);
             }
         }
     }
 
+    /**
+     * Starts the loaders for the POIs and the route.
+     */
+    private void loadData() {
+        LoaderManager lm = getLoaderManager();
+        if (VIEWPORT_LOADING) {
+            // Wait until the map has been laid out
+            mHandler.postDelayed(mCameraIdle, VIEWPORT_DELAY_MS);
+            lm.initLoader(MapLoaderCallbacks.TOKEN_POI_BOUNDS, null, mLoaderCallbacks);
+        } else {
+            lm.initLoader(MapLoaderCallbacks.TOKEN_POI, null, mLoaderCallbacks);
+        }
+        lm.initLoader(MapLoaderCallbacks.TOKEN_ROUTE, null, mLoaderCallbacks);
+    }
+
+    @Override
+    public void onCameraChange(CameraPosition position) {
+        // Show the clusters of the new zoom level
+        final int zoom = (int) position.zoom;
+        if (mClusterZoom != -1 && zoom != mClusterZoom) {
+            mClusterZoom = zoom;
+            mClusters = null;
+            mClusterer.cluster(zoom);
+        }
+
+        if (mHasData) {
+            // Back off from prefetching while the user moves the map, and
+            // reload, cull and prefetch once the camera has not moved for a
+            // while
+            mPrefetcher.pause();
+            mHandler.removeCallbacks(mCameraIdle);
+            mHandler.postDelayed(mCameraIdle, VIEWPORT_DELAY_MS);
+        }
+    }
+
+    /**
+     * Restarts the POI loader for the visible region of the map plus a margin.
+     * Unless forced, the POIs are only reloaded if the visible region is no
+     * longer within the loaded area or the zoom level has changed
+     * significantly.
+     * 
+     * @param force
+     */
+    private void loadViewport(boolean force) {
+        LatLngBounds visible = mMap.getProjection().getVisibleRegion().latLngBounds;
+        if (visible.southwest.equals(visible.northeast)) {
+            // The map has not been laid out yet, wait for the camera change
+            return;
+        }
+
+        float zoom = mMap.getCameraPosition().zoom;
+        if (!force && mViewportLoaded && Math.abs(zoom - mLoadedZoom) < 1
+                && (mLoadedBounds == null || (mLoadedBounds.contains(visible.southwest)
+                && mLoadedBounds.contains(visible.northeast)))) {
+            return;
+        }
+        mLoadedBounds = expand(visible, VIEWPORT_MARGIN);
+        mLoadedZoom = zoom;
+        mViewportLoaded = true;
+
+        // Load all POIs if the area covers the whole width of the map
+        Bundle args = null;
+        if (mLoadedBounds != null) {
+            args = new Bundle();
+            args.putParcelable(MapLoaderCallbacks.KEY_BOUNDS, mLoadedBounds);
+        }
+        getLoaderManager().restartLoader(MapLoaderCallbacks.TOKEN_POI, args, mLoaderCallbacks);
+    }
+
+    /**
+     * Returns the bounds grown by the margin on all sides, or null if they
+     * would span all longitudes.
+     * 
+     * @param bounds
+     * @param margin Fraction of the size of the bounds
+     * @return
+     */
+    private static LatLngBounds expand(LatLngBounds bounds, double margin) {
+        double height = bounds.northeast.latitude - bounds.southwest.latitude;
+        double width = bounds.northeast.longitude - bounds.southwest.longitude;
+        if (width < 0) {
+            // The bounds cross the 180th meridian
+            width += 360;
+        }
+        if (width * (1 + 2 * margin) >= 360) {
+            return null;
+        }
+
+        // LatLng clamps the latitude and wraps the longitude
+        return new LatLngBounds(
+                new LatLng(bounds.southwest.latitude - height * margin,
+                        bounds.southwest.longitude - width * margin),
+                new LatLng(bounds.northeast.latitude + height * margin,
+                        bounds.northeast.longitude + width * margin));
+    }
+
+    /**
+     * Called once new tour data has been imported into the database. The map
+     * is already displayed, the markers of POIs that have changed and the
+     * route are replaced once they have been reloaded.
+     */
+    public void onDataLoaded() {
+        mHasData = true;
+        if (mMap == null) {
+            return;
+        }
+
+        // The prefetched thumbnails belong to the previous data
+        mPrefetcher.reset();
+
+        // Remove the previous route from the map, the POIs are reconciled
+        // once they have been reloaded
+        if (mRoute != null) {
+            mRoute.remove();
+            mRoute = null;
+        }
+
+        LoaderManager lm = getLoaderManager();
+        if (VIEWPORT_LOADING) {
+            mAllPoiBounds = null;
+            lm.restartLoader(MapLoaderCallbacks.TOKEN_POI_BOUNDS, null, mLoaderCallbacks);
+            loadViewport(true);
+        } else {
+            lm.restartLoader(MapLoaderCallbacks.TOKEN_POI, null, mLoaderCallbacks);
+        }
+        lm.restartLoader(MapLoaderCallbacks.TOKEN_ROUTE, null, mLoaderCallbacks);
+    }
+
     @Override
     public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
         inflater.inflate(R.menu.map, menu);
@@ -184,16 +475,21 @@ public class TourMapFragment extends MapFragment
 
     /** Moves the camera back to a position which includes all the POIs. */
     private void showAllPois() {
-        // Build a bounding box containing all of the POIs.
-        LatLngBounds.Builder builder = LatLngBounds.builder();
-        Iterator<Map.Entry<String, Marker>> iter = mPoiMarkers.entrySet().iterator();
-        while (iter.hasNext()) {
-            Marker m = iter.next().getValue();
-            builder.include(m.getPosition());
+        LatLngBounds bounds = mAllPoiBounds;
+        if (bounds == null) {
+            // Build a bounding box containing all of the POIs.
+            if (mPoiData.size() == 0) {
+                return;
+            }
+            LatLngBounds.Builder builder = LatLngBounds.builder();
+            for (int i = 0; i < mPoiData.size(); i++) {
+                builder.include(mPoiData.valueAt(i).getLocation());
+            }
+            bounds = builder.build();
         }
         // Create a camera update that includes all the POIs with a padding of
         // 100px.
-        CameraUpdate update = CameraUpdateFactory.newLatLngBounds(builder.build(), 100);
+        CameraUpdate update = CameraUpdateFactory.newLatLngBounds(bounds, 100);
         mMap.animateCamera(update);
     }
 
@@ -208,28 +504,88 @@ public class TourMapFragment extends MapFragment
     /**
      * Called when a POI is selected from the list of POIs.
      * 
-     * @param title The title of the POI.
+     * @param id The ID of the POI.
+     * @param location The location of the POI.
      */
-    public void onPoiSelected(String title) {
-        Marker marker = mPoiMarkers.get(title);
-        if (marker != null) {
-            // Construct a camera position. We use an arbitrary bearing because
-            // it makes the camera animation look
-            // cooler!
-            CameraPosition camera = new CameraPosition.Builder()
-                    .bearing(mRandom.nextFloat() * 360)
-                    .zoom(18f)
-                    .tilt(45f)
-                    .target(marker.getPosition())
-                    .build();
-
-            // Animate the camera to that position using a custom duration of 2
-            // seconds.
-            mMap.animateCamera(CameraUpdateFactory.newCameraPosition(camera), 2000, null);
+    public void onPoiSelected(long id, LatLng location) {
+        Marker marker = mPoiMarkers.get(id);
+
+        // Construct a camera position. We use an arbitrary bearing because
+        // it makes the camera animation look
+        // cooler!
+        CameraPosition camera = new CameraPosition.Builder()
+                .bearing(mRandom.nextFloat() * 360)
+                .zoom(18f)
+                .tilt(45f)
+                .target(marker != null ? marker.getPosition() : location)
+                .build();
+
+        // Animate the camera to that position using a custom duration of 2
+        // seconds.
+        mMap.animateCamera(CameraUpdateFactory.newCameraPosition(camera), 2000, null);
 
+        if (marker != null) {
             // Show the info window.
             marker.showInfoWindow();
+        } else {
+            // The POI is outside of the loaded area or part of a cluster, show
+            // its info window once its marker has been added at the new camera
+            // position.
+            mPendingInfoWindow = id;
+        }
+    }
+
+    /**
+     * Prefetches the thumbnails of the POIs shown in the list of POIs.
+     *
+     * @param urls The picture URLs of the POIs, in order of importance
+     */
+    public void prefetchThumbnails(ArrayList<String> urls) {
+        if (mPrefetcher != null) {
+            mPrefetcher.prefetch(urls);
+        }
+    }
+
+    /**
+     * Prefetches the thumbnails of the POIs around the camera target and ahead
+     * of it along the route.
+     */
+    private void prefetchThumbnails() {
+        ArrayList<PointOfInterest> pois = new ArrayList<PointOfInterest>(mPoiData.size());
+        for (int i = 0; i < mPoiData.size(); i++) {
+            pois.add(mPoiData.valueAt(i));
+        }
+        mPrefetcher.prefetchAround(mMap.getCameraPosition().target, pois);
+    }
+
+    @Override
+    public boolean onMarkerClick(Marker marker) {
+        PoiClusterer.Cluster cluster = mMarkerClusters.get(marker.getId());
+        if (cluster == null || cluster.mPoi != null) {
+            // Show the info window of a POI.
+            return false;
+        }
+
+        // Zoom in until the POIs of the cluster are shown on their own.
+        if (cluster.mBounds.southwest.equals(cluster.mBounds.northeast)) {
+            mMap.animateCamera(CameraUpdateFactory.newLatLngZoom(cluster.mPosition,
+                    PoiClusterer.MAX_CLUSTER_ZOOM + 1));
+        } else {
+            mMap.animateCamera(CameraUpdateFactory.newLatLngBounds(cluster.mBounds, 100));
         }
+        return true;
+    }
+
+    @Override
+    public PointOfInterest getPoi(Marker marker) {
+        PoiClusterer.Cluster cluster = mMarkerClusters.get(marker.getId());
+        return cluster != null ? cluster.mPoi : null;
+    }
+
+    @Override
+    public void onMapClick(LatLng point) {
+        // The info window is closed, its thumbnail is no longer needed.
+        mInfoWindowAdapter.onInfoWindowClosed();
     }
 
     @Override
@@ -271,32 +627,229 @@ public class TourMapFragment extends MapFragment
      * Called to add a point of interest to the map.
      */
     public void addPoi(PointOfInterest poi) {
+        mReconciler.add(poi);
+    }
+
+    /**
+     * Called once all POIs of a load have been added. Only the POIs that have
+     * been added, removed or changed since the previous load are passed on to
+     * the clusterer and markers.
+     */
+    public void onPoisLoaded() {
+        PoiReconciler.Changes changes = mReconciler.finish();
+        if (changes.isEmpty()) {
+            return;
+        }
+
+        for (PointOfInterest poi : changes.mRemoved) {
+            mPoiData.remove(poi.getId());
+        }
+        for (PointOfInterest poi : changes.mAdded) {
+            mPoiData.put(poi.getId(), poi);
+        }
+        for (int i = 0; i < changes.mUpdatedNew.size(); i++) {
+            PointOfInterest poi = changes.mUpdatedNew.get(i);
+            mPoiData.put(poi.getId(), poi);
+
+            // Update the marker in place, unless it needs a new icon
+            Marker marker = mPoiMarkers.get(poi.getId());
+            if (marker != null) {
+                if (poi.getType() != changes.mUpdatedOld.get(i).getType()) {
+                    mPool.release(marker);
+                    mPoiMarkers.remove(poi.getId());
+                    mMarkerClusters.remove(marker.getId());
+                } else {
+                    marker.setPosition(poi.getLocation());
+                    marker.setTitle(poi.getTitle());
+                    marker.setSnippet(poi.getDescription());
+                    mMarkerClusters.put(marker.getId(), PoiClusterer.Cluster.of(poi));
+                }
+            }
+        }
+
+        // Updated POIs are replaced in the clusters
+        ArrayList<PointOfInterest> added = new ArrayList<PointOfInterest>(changes.mAdded);
+        added.addAll(changes.mUpdatedNew);
+        ArrayList<PointOfInterest> removed = new ArrayList<PointOfInterest>(changes.mRemoved);
+        removed.addAll(changes.mUpdatedOld);
+        mClusterer.update(added, removed);
+
+        mClusterZoom = (int) mMap.getCameraPosition().zoom;
+        mClusterer.cluster(mClusterZoom);
+    }
+
+    /**
+     * Called with the clusters of all POIs at a zoom level.
+     */
+    public void onClustersComputed(int zoom, ArrayList<PoiClusterer.Cluster> clusters) {
+        if (zoom != mClusterZoom || mMap == null) {
+            // The camera has moved on to another zoom level
+            return;
+        }
+        mClusters = clusters;
+        showClusters();
+    }
+
+    /**
+     * Shows the markers of the clusters within the visible region. Markers of
+     * clusters that are still shown are kept, all other markers are returned to
+     * the pool. New markers are added in batches by the
+     * {@link MarkerScheduler}.
+     */
+    private void showClusters() {
+        if (mClusters == null) {
+            return;
+        }
+        LatLngBounds visible = mMap.getProjection().getVisibleRegion().latLngBounds;
+        LatLngBounds shown = visible.southwest.equals(visible.northeast) ? null : expand(
+                visible, CULLING_MARGIN);
+
+        // Markers of the previous clusters that have not been added yet are
+        // scheduled again below if they are still needed
+        mScheduler.cancel();
+
+        LongSparseArray<Marker> poiMarkers = new LongSparseArray<Marker>();
+        LongSparseArray<Marker> clusterMarkers = new LongSparseArray<Marker>();
+        HashMap<String, PoiClusterer.Cluster> markerClusters =
+                new HashMap<String, PoiClusterer.Cluster>();
+        ArrayList<PoiClusterer.Cluster> added = new ArrayList<PoiClusterer.Cluster>();
+        for (PoiClusterer.Cluster cluster : mClusters) {
+            if (shown != null && !shown.contains(cluster.mPosition)) {
+                // Outside of the visible region
+                continue;
+            }
+            if (cluster.mPoi != null) {
+                Marker marker = mPoiMarkers.get(cluster.mPoi.getId());
+                if (marker == null) {
+                    added.add(cluster);
+                } else {
+                    mPoiMarkers.remove(cluster.mPoi.getId());
+                    poiMarkers.put(cluster.mPoi.getId(), marker);
+                    markerClusters.put(marker.getId(), cluster);
+                }
+            } else {
+                Marker marker = mClusterMarkers.get(cluster.mKey);
+                mClusterMarkers.remove(cluster.mKey);
+                PoiClusterer.Cluster previous = marker != null ? mMarkerClusters.get(marker
+                        .getId()) : null;
+                if (marker != null && (cluster.mSize != previous.mSize
+                        || !cluster.mPosition.equals(previous.mPosition))) {
+                    mPool.release(marker);
+                    marker = null;
+                }
+                if (marker == null) {
+                    added.add(cluster);
+                } else {
+                    clusterMarkers.put(cluster.mKey, marker);
+                    markerClusters.put(marker.getId(), cluster);
+                }
+            }
+        }
+
+        // Recycle the markers that are no longer shown
+        for (int i = 0; i < mPoiMarkers.size(); i++) {
+            mPool.release(mPoiMarkers.valueAt(i));
+        }
+        for (int i = 0; i < mClusterMarkers.size(); i++) {
+            mPool.release(mClusterMarkers.valueAt(i));
+        }
+        mPoiMarkers = poiMarkers;
+        mClusterMarkers = clusterMarkers;
+        mMarkerClusters = markerClusters;
+
+        for (PoiClusterer.Cluster cluster : added) {
+            if (cluster.mPoi != null) {
+                addPoiMarker(cluster);
+            } else {
+                addClusterMarker(cluster);
+            }
+        }
+        mScheduler.start(mMap.getCameraPosition().target);
+    }
+
+    /**
+     * Schedules the marker of a single POI to be added to the map.
+     */
+    private void addPoiMarker(final PoiClusterer.Cluster cluster) {
+        final PointOfInterest poi = cluster.mPoi;
         MarkerOptions options = new MarkerOptions()
-                .position(poi.mLocation)
-                .title(poi.mTitle)
-                .snippet(poi.mDescription);
+                .position(poi.getLocation())
+                .title(poi.getTitle())
+                .snippet(poi.getDescription());
 
         // Choose a custom icon for the POI according to its type.
-        options.icon(BitmapDescriptorFactory.fromResource(poi.mType.mResId));
+        options.icon(mIconCache.getPoiIcon(poi.getType()));
 
         // Add the marker to the map.
-        Marker marker = mMap.addMarker(options);
+        mScheduler.add(options, new MarkerScheduler.MarkerCallback() {
+            @Override
+            public void onMarkerAdded(Marker marker) {
+                mPoiMarkers.put(poi.getId(), marker);
+                mMarkerClusters.put(marker.getId(), cluster);
+
+                if (poi.getId() == mPendingInfoWindow) {
+                    marker.showInfoWindow();
+                    mPendingInfoWindow = -1;
+                }
+            }
+        });
+    }
+
+    /**
+     * Schedules the marker of a cluster of several POIs to be added to the
+     * map.
+     */
+    private void addClusterMarker(final PoiClusterer.Cluster cluster) {
+        MarkerOptions options = new MarkerOptions()
+                .position(cluster.mPosition)
+                .anchor(0.5f, 0.5f)
+                .icon(mIconCache.getClusterIcon(cluster.mSize));
+        mScheduler.add(options, new MarkerScheduler.MarkerCallback() {
+            @Override
+            public void onMarkerAdded(Marker marker) {
+                mClusterMarkers.put(cluster.mKey, marker);
+                mMarkerClusters.put(marker.getId(), cluster);
+            }
+        });
+    }
 
-        // Add the marker to some data sets.
-        mPoiData.put(marker.getTitle(), poi);
-        mPoiMarkers.put(marker.getTitle(), marker);
+    /**
+     * Shows the progress of adding markers in the action bar.
+     */
+    @Override
+    public void onMarkerProgress(int added, int total) {
+        Activity activity = getActivity();
+        if (activity != null) {
+            activity.setProgressBarVisibility(added < total);
+            if (total > 0) {
+                activity.setProgress(added * (Window.PROGRESS_END - Window.PROGRESS_START)
+                        / total);
+            }
+        }
+        if (added == total && total > 0 && Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, mIconCache.toString());
+            Log.d(TAG, mPool.toString());
+        }
+    }
+
+    /**
+     * Called with the bounding box of all POIs.
+     */
+    public void setPoiBounds(LatLngBounds bounds) {
+        mAllPoiBounds = bounds;
     }
 
     /**
      * Called with a list of LatLng route coordinates.
      */
-    public void addRoute(ArrayList<LatLng> list) {
+    public void addRoute(List<LatLng> list) {
         // Create a Polyline options object describing the polyline.
         PolylineOptions options = new PolylineOptions()
                 .addAll(list)
                 .color(0xFFCC0000)
                 .width(8);
         // Add it to the map.
-        mMap.addPolyline(options);
+        mRoute = mMap.addPolyline(options);
+        mPrefetcher.setRoute(list);
     }
 }
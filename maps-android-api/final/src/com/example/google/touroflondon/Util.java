@@ -17,19 +17,14 @@
 package com.example.google.touroflondon;
 
 import com.example.google.R;
-
-import org.json.JSONException;
-import org.json.JSONObject;
+import com.example.google.touroflondon.data.TourJsonReader;
 
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.Editor;
 import android.preference.PreferenceManager;
 
-import java.io.BufferedReader;
-import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 
 public class Util {
 
@@ -40,35 +35,15 @@ public class Util {
     private static final String PREFERENCE_DATA_LOADED = "PREFERENCE_DATA_LOADED";
 
     /**
-     * Reads the route.json and parses it into a JSONObject.
+     * Opens the tour.json file from the raw resources. The returned stream is
+     * read incrementally by {@link TourJsonReader}, the caller is responsible
+     * for closing it.
      * 
      * @param context
      * @return
-     * @throws IOException
-     * @throws JSONException
      */
-    public static JSONObject readRoute(Context context) throws IOException, JSONException {
-
-        // Read file into String
-        InputStream is = context.getResources().openRawResource(R.raw.tour);
-        StringBuilder sb = new StringBuilder();
-        try {
-            BufferedReader br = new BufferedReader(new InputStreamReader(is, "UTF-8"));
-            char[] buffer = new char[1024];
-            int length;
-            while ((length = br.read(buffer)) > 0) {
-                sb.append(buffer, 0, length);
-            }
-        } finally {
-            if (is != null) {
-                is.close();
-            }
-        }
-
-        // Covert String to json
-        JSONObject json = new JSONObject(sb.toString());
-
-        return json;
+    public static InputStream openTour(Context context) {
+        return context.getResources().openRawResource(R.raw.tour);
     }
 
     /**
@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.google.touroflondon.data;
+
+import com.example.google.touroflondon.Util;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * Compares the import of tour.json by the {@link TourImporter} with the
+ * original import, which inserted every row through
+ * {@link SQLiteDatabase#insert(String, String, ContentValues)}. Both import
+ * the complete file into an empty scratch database with the schema of
+ * {@link TourSchema} and write the same rows, so that only the way the rows
+ * are written differs. The resulting {@link ImportReport}s are logged as the
+ * baseline and the current figures.
+ */
+public class ImportBenchmark {
+
+    private static final String TAG = "ImportBenchmark";
+
+    /** Set to true to run the benchmark after each import. */
+    public static final boolean ENABLED = false;
+
+    private static final int ITERATIONS = 5;
+
+    private static final String DATABASE_NAME = "ImportBenchmark.db";
+
+    private ImportBenchmark() {
+    }
+
+    /**
+     * Runs the benchmark. Must not be called on the UI thread.
+     *
+     * @param context
+     */
+    public static void run(Context context) {
+        try {
+            // Warm up, so that the first run does not pay for class loading
+            importBaseline(context);
+            importCompiled(context);
+
+            ImportReport baseline = null;
+            ImportReport compiled = null;
+            long baselineMillis = 0;
+            long compiledMillis = 0;
+            for (int i = 0; i < ITERATIONS; i++) {
+                baseline = importBaseline(context);
+                baselineMillis += baseline.mElapsedMillis;
+                compiled = importCompiled(context);
+                compiledMillis += compiled.mElapsedMillis;
+            }
+
+            Log.i(TAG, "Baseline: " + baseline);
+            Log.i(TAG, "Compiled statements: " + compiled);
+            Log.i(TAG, "Average of " + ITERATIONS + " imports: baseline "
+                    + baselineMillis / ITERATIONS + "ms, compiled statements "
+                    + compiledMillis / ITERATIONS + "ms");
+        } catch (IOException e) {
+            Log.w(TAG, "Benchmark failed.", e);
+        } finally {
+            context.deleteDatabase(DATABASE_NAME);
+        }
+    }
+
+    /**
+     * Imports tour.json into an empty database in the same way as the
+     * original implementation, one {@link ContentValues} per row.
+     */
+    private static ImportReport importBaseline(Context context) throws IOException {
+        final SQLiteDatabase db = openEmpty(context);
+        try {
+            final long start = SystemClock.elapsedRealtime();
+            BaselineHandler handler = new BaselineHandler(db);
+            db.beginTransaction();
+            try {
+                new TourJsonReader(handler).read(Util.openTour(context));
+                handler.finish();
+
+                ContentValues cv = new ContentValues();
+                cv.put(TourContract.MetadataEntry.COLUMN_NAME_KEY,
+                        TourContract.MetadataEntry.KEY_SOURCE_HASH);
+                cv.put(TourContract.MetadataEntry.COLUMN_NAME_VALUE, "");
+                db.insert(TourContract.MetadataEntry.TABLE_NAME, null, cv);
+
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            return new ImportReport(handler.mPoiRows, 0, 0, handler.mRouteRows,
+                    SystemClock.elapsedRealtime() - start);
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * Imports tour.json into an empty database with the {@link TourImporter}.
+     */
+    private static ImportReport importCompiled(Context context) throws IOException {
+        SQLiteDatabase db = openEmpty(context);
+        try {
+            return new TourImporter(db).importTour(Util.openTour(context), "");
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * Creates an empty database with the schema of {@link TourDbHelper}.
+     */
+    private static SQLiteDatabase openEmpty(Context context) {
+        context.deleteDatabase(DATABASE_NAME);
+        SQLiteDatabase db = context.openOrCreateDatabase(DATABASE_NAME, Context.MODE_PRIVATE,
+                null);
+        for (String sql : TourSchema.SQL_CREATE_SCHEMA) {
+            db.execSQL(sql);
+        }
+        return db;
+    }
+
+    /**
+     * Writes the same POI, route segment and dictionary rows as the
+     * {@link TourImporter} does for an empty database, but inserts each of
+     * them with a new {@link ContentValues}.
+     */
+    private static class BaselineHandler implements TourJsonReader.Handler {
+
+        private final SQLiteDatabase mDb;
+
+        // IDs of the dictionary entries, by value
+        private final HashMap<String, Long> mDictionary = new HashMap<String, Long>();
+
+        // Route points of the segment that is currently being read
+        private final double[] mSegmentLat =
+                new double[TourContract.RouteEntry.POINTS_PER_SEGMENT];
+        private final double[] mSegmentLng =
+                new double[TourContract.RouteEntry.POINTS_PER_SEGMENT];
+        private int mSegmentSize = 0;
+        private int mSegmentIndex = 0;
+
+        int mPoiRows = 0;
+        int mRouteRows = 0;
+
+        BaselineHandler(SQLiteDatabase db) {
+            mDb = db;
+        }
+
+        @Override
+        public void onPoi(String key, String title, String type, String description,
+                String pictureUrl, String pictureAttr, double lat, double lng) {
+            ContentValues cv = new ContentValues();
+            cv.put(TourContract.PoiEntry.COLUMN_NAME_KEY, key);
+            cv.put(TourContract.PoiEntry.COLUMN_NAME_TITLE, title);
+            cv.put(TourContract.PoiEntry.COLUMN_NAME_TYPE, type);
+            cv.put(TourContract.PoiEntry.COLUMN_NAME_LOCATION_LAT, lat);
+            cv.put(TourContract.PoiEntry.COLUMN_NAME_LOCATION_LNG, lng);
+            cv.put(TourContract.PoiEntry.COLUMN_NAME_DESCRIPTION, description);
+            if (pictureUrl != null) {
+                cv.put(TourContract.PoiEntry.COLUMN_NAME_PICTURE_URL,
+                        TourDictionary.stripUrlPrefix(pictureUrl));
+                cv.put(TourContract.PoiEntry.COLUMN_NAME_PICTURE_URL_PREFIX,
+                        getId(TourDictionary.getUrlPrefix(pictureUrl)));
+            }
+            if (pictureAttr != null) {
+                cv.put(TourContract.PoiEntry.COLUMN_NAME_PICTURE_ATTR,
+                        TourDictionary.stripLicense(pictureAttr));
+                cv.put(TourContract.PoiEntry.COLUMN_NAME_PICTURE_LICENSE,
+                        getId(TourDictionary.getLicense(pictureAttr)));
+            }
+            cv.put(TourContract.PoiEntry.COLUMN_NAME_HASH,
+                    TourHash.poi(title, type, description, pictureUrl, pictureAttr, lat, lng));
+            cv.put(TourContract.PoiEntry.COLUMN_NAME_CELL, SpatialGrid.cell(lat, lng));
+            mDb.insert(TourContract.PoiEntry.TABLE_NAME, null, cv);
+            mPoiRows++;
+        }
+
+        @Override
+        public void onRoutePoint(double lat, double lng) {
+            mSegmentLat[mSegmentSize] = lat;
+            mSegmentLng[mSegmentSize] = lng;
+            mSegmentSize++;
+
+            if (mSegmentSize == TourContract.RouteEntry.POINTS_PER_SEGMENT) {
+                writeSegment();
+            }
+        }
+
+        /**
+         * Writes the last, partial segment of the route.
+         */
+        void finish() {
+            if (mSegmentSize > 0) {
+                writeSegment();
+            }
+        }
+
+        private void writeSegment() {
+            ContentValues cv = new ContentValues();
+            cv.put(TourContract.RouteEntry._ID, mSegmentIndex);
+            cv.put(TourContract.RouteEntry.COLUMN_NAME_COUNT, mSegmentSize);
+            cv.put(TourContract.RouteEntry.COLUMN_NAME_POINTS,
+                    RouteCodec.encode(mSegmentLat, mSegmentLng, mSegmentSize));
+            cv.put(TourContract.RouteEntry.COLUMN_NAME_HASH,
+                    TourHash.segment(mSegmentLat, mSegmentLng, mSegmentSize));
+            mDb.insert(TourContract.RouteEntry.TABLE_NAME, null, cv);
+            mRouteRows++;
+
+            mSegmentIndex++;
+            mSegmentSize = 0;
+        }
+
+        /**
+         * Returns the dictionary ID of the value, inserting it into the
+         * dictionary if needed, or null if the value is null.
+         */
+        private Long getId(String value) {
+            if (value == null) {
+                return null;
+            }
+            Long id = mDictionary.get(value);
+            if (id == null) {
+                ContentValues cv = new ContentValues();
+                cv.put(TourContract.DictionaryEntry.COLUMN_NAME_VALUE, value);
+                id = mDb.insert(TourContract.DictionaryEntry.TABLE_NAME, null, cv);
+                mDictionary.put(value, id);
+            }
+            return id;
+        }
+    }
+}
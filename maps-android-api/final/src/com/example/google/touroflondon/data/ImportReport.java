@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.google.touroflondon.data;
+
+
+/**
+ * Statistics about a single import of the tour data into the database,
+ * returned by {@link TourDbHelper#loadTour(java.io.InputStream, String)}.
+ */
+public class ImportReport {
+
+    /** Number of POI rows inserted. */
+    public final int mPoiInserted;
+
+    /** Number of POI rows updated in place. */
+    public final int mPoiUpdated;
+
+    /** Number of POI rows deleted. */
+    public final int mPoiDeleted;
+
+    /** Number of route segment rows written or deleted. */
+    public final int mRouteRows;
+
+    /** Wall clock time of the import in milliseconds. */
+    public final long mElapsedMillis;
+
+    /** The error that stopped the import, or null if it has completed. */
+    public final Exception mError;
+
+    public ImportReport(int poiInserted, int poiUpdated, int poiDeleted, int routeRows,
+            long elapsedMillis) {
+        this(poiInserted, poiUpdated, poiDeleted, routeRows, elapsedMillis, null);
+    }
+
+    private ImportReport(int poiInserted, int poiUpdated, int poiDeleted, int routeRows,
+            long elapsedMillis, Exception error) {
+        this.mPoiInserted = poiInserted;
+        this.mPoiUpdated = poiUpdated;
+        this.mPoiDeleted = poiDeleted;
+        this.mRouteRows = routeRows;
+        this.mElapsedMillis = elapsedMillis;
+        this.mError = error;
+    }
+
+    /**
+     * Returns a report for an import that was skipped because the source data
+     * has not changed since the last import.
+     *
+     * @param elapsedMillis Time taken to verify the source data
+     */
+    public static ImportReport unchanged(long elapsedMillis) {
+        return new ImportReport(0, 0, 0, 0, elapsedMillis);
+    }
+
+    /**
+     * Returns a report for an import that could not read the source data or
+     * write it to the database. No data has been changed.
+     *
+     * @param error
+     * @param elapsedMillis Time until the import failed
+     */
+    public static ImportReport failed(Exception error, long elapsedMillis) {
+        return new ImportReport(0, 0, 0, 0, elapsedMillis, error);
+    }
+
+    /**
+     * Returns true unless the import has failed.
+     */
+    public boolean isSuccessful() {
+        return mError == null;
+    }
+
+    /**
+     * Returns true if any data in the database has been changed.
+     */
+    public boolean hasChanges() {
+        return getRows() > 0;
+    }
+
+    /**
+     * Returns the total number of rows written.
+     */
+    public int getRows() {
+        return mPoiInserted + mPoiUpdated + mPoiDeleted + mRouteRows;
+    }
+
+    /**
+     * Returns the import throughput in rows per second.
+     */
+    public float getRowsPerSecond() {
+        if (mElapsedMillis == 0) {
+            return getRows();
+        }
+        return getRows() * 1000f / mElapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+        if (!isSuccessful()) {
+            return "Tour data import failed after " + mElapsedMillis + "ms: " + mError;
+        }
+        if (!hasChanges()) {
+            return "Tour data unchanged, verified in " + mElapsedMillis + "ms";
+        }
+        return "Inserted " + mPoiInserted + ", updated " + mPoiUpdated + " and deleted "
+                + mPoiDeleted + " POIs, wrote "
+                + mRouteRows + " route segments in " + mElapsedMillis + "ms ("
+                + Math.round(getRowsPerSecond()) + " rows/s)";
+    }
+}
@@ -18,16 +18,24 @@ package com.example.google.touroflondon.data;
 
 import com.example.google.touroflondon.PointOfInterest;
 import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
 
 import android.app.LoaderManager;
 import android.content.Context;
 import android.content.Loader;
-import android.database.Cursor;
 import android.os.Bundle;
 
 import java.util.ArrayList;
-
-public class MapLoaderCallbacks implements LoaderManager.LoaderCallbacks<Cursor> {
+import java.util.List;
+
+/**
+ * Loader callbacks of the map that pass the POIs, route and POI bounds of the
+ * {@link TourSnapshot} of the {@link TourRepository} to a {@link MapDataLoader}.
+ * Each token has its own {@link TourDataLoader}, which prepares its data on
+ * the worker thread, so that only the finished data is delivered to the UI
+ * thread.
+ */
+public class MapLoaderCallbacks implements LoaderManager.LoaderCallbacks<Object> {
 
     /**
      * Callbacks for processed data loaded from MapLoaderCallbacks.
@@ -35,13 +43,31 @@ public class MapLoaderCallbacks implements LoaderManager.LoaderCallbacks<Cursor>
     public interface MapDataLoader {
         public void addPoi(PointOfInterest poi);
 
-        public void addRoute(ArrayList<LatLng> list);
+        /**
+         * Called once all POIs of a load have been passed to
+         * {@link #addPoi(PointOfInterest)}.
+         */
+        public void onPoisLoaded();
+
+        public void addRoute(List<LatLng> list);
+
+        /**
+         * Called with the bounding box of all POIs in the database.
+         */
+        public void setPoiBounds(LatLngBounds bounds);
     }
 
     private MapDataLoader mCallback;
     private Context mContext;
     public static final int TOKEN_POI = 0x1;
     public static final int TOKEN_ROUTE = 0x2;
+    public static final int TOKEN_POI_BOUNDS = 0x3;
+
+    /**
+     * Key for the {@link LatLngBounds} in the arguments of the POI loader.
+     * Only POIs within the bounds are loaded if it is set.
+     */
+    public static final String KEY_BOUNDS = "bounds";
 
     public MapLoaderCallbacks(MapDataLoader loader, Context context) {
         mCallback = loader;
@@ -49,97 +75,75 @@ public class MapLoaderCallbacks implements LoaderManager.LoaderCallbacks<Cursor>
     }
 
     @Override
-    public Loader<Cursor> onCreateLoader(int id, Bundle data) {
+    public Loader<Object> onCreateLoader(int id, Bundle data) {
         switch (id) {
-            case TOKEN_POI:
-                return new PoiCursorLoader(mContext, PoiQuery.PROJECTION);
-            case TOKEN_ROUTE:
-                return new RouteCursorLoader(mContext);
+            case TOKEN_POI: {
+                final LatLngBounds bounds = data != null ? (LatLngBounds) data
+                        .getParcelable(KEY_BOUNDS) : null;
+                // Look up and create the POIs off the UI thread
+                return new TourDataLoader<Object>(mContext) {
+                    @Override
+                    protected Object load(TourSnapshot snapshot) {
+                        return bounds != null ? snapshot.getPoisInBounds(bounds)
+                                : new ArrayList<PointOfInterest>(snapshot.getPois());
+                    }
+                };
+            }
+            case TOKEN_ROUTE: {
+                // Create the LatLngs of the route off the UI thread
+                return new TourDataLoader<Object>(mContext) {
+                    @Override
+                    protected Object load(TourSnapshot snapshot) {
+                        return snapshot.createRoute();
+                    }
+                };
+            }
+            case TOKEN_POI_BOUNDS: {
+                return new TourDataLoader<Object>(mContext) {
+                    @Override
+                    protected Object load(TourSnapshot snapshot) {
+                        return snapshot.getPoiBounds();
+                    }
+                };
+            }
         }
         return null;
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
+    public void onLoadFinished(Loader<Object> loader, Object data) {
         switch (loader.getId()) {
             case TOKEN_POI: {
-                loadPois(cursor);
+                List<PointOfInterest> pois = asList(data);
+                for (PointOfInterest poi : pois) {
+                    // Add the POI to the map.
+                    mCallback.addPoi(poi);
+                }
+                mCallback.onPoisLoaded();
                 break;
             }
             case TOKEN_ROUTE: {
-                loadRoute(cursor);
+                List<LatLng> route = asList(data);
+                mCallback.addRoute(route);
+                break;
+            }
+            case TOKEN_POI_BOUNDS: {
+                // The bounds are null if there are no POIs
+                if (data != null) {
+                    mCallback.setPoiBounds((LatLngBounds) data);
+                }
                 break;
             }
         }
     }
 
-    private void loadRoute(Cursor cursor) {
-        cursor.moveToFirst();
-        ArrayList<LatLng> list = new ArrayList<LatLng>(cursor.getCount());
-        while (!cursor.isAfterLast()) {
-            // Extract fields from the cursor and add to the list.
-            final double lat = cursor.getDouble(RouteCursorLoader.RouteQuery.ROUTE_LAT);
-            final double lng = cursor.getDouble(RouteCursorLoader.RouteQuery.ROUTE_LNG);
-            list.add(new LatLng(lat, lng));
-            cursor.moveToNext();
-        }
-        // Add the route to the map.
-        mCallback.addRoute(list);
-    }
-
-    private void loadPois(Cursor cursor) {
-        cursor.moveToFirst();
-        while (!cursor.isAfterLast()) {
-            // Extract fields from the cursor and construct the POI object.
-            String title = cursor.getString(PoiQuery.POI_TITLE);
-            String description = cursor.getString(PoiQuery.POI_DESCRIPTION);
-            PointOfInterest.Type type = PointOfInterest.Type.valueOf(cursor
-                    .getString(PoiQuery.POI_TYPE));
-            LatLng location = new LatLng(cursor.getDouble(PoiQuery.POI_LOCATION_LAT),
-                    cursor.getDouble(PoiQuery.POI_LOCATION_LNG));
-            String pictureAttr = cursor.getString(PoiQuery.POI_PICTURE_ATTR);
-            String pictureUrl = cursor.getString(PoiQuery.POI_PICTURE_URL);
-
-            PointOfInterest poi = new PointOfInterest(title,
-                    description,
-                    type,
-                    pictureAttr,
-                    pictureUrl,
-                    location);
-
-            // Add the POI to the map.
-            mCallback.addPoi(poi);
-            cursor.moveToNext();
-        }
+    @SuppressWarnings("unchecked")
+    private static <T> List<T> asList(Object data) {
+        return (List<T>) data;
     }
 
     @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
+    public void onLoaderReset(Loader<Object> loader) {
         // Do nothing.
     }
-
-    /**
-     * Projection for POI query.
-     */
-    private interface PoiQuery {
-
-        String[] PROJECTION = {
-                TourContract.PoiEntry.COLUMN_NAME_TITLE,
-                TourContract.PoiEntry.COLUMN_NAME_DESCRIPTION,
-                TourContract.PoiEntry.COLUMN_NAME_TYPE,
-                TourContract.PoiEntry.COLUMN_NAME_LOCATION_LAT,
-                TourContract.PoiEntry.COLUMN_NAME_LOCATION_LNG,
-                TourContract.PoiEntry.COLUMN_NAME_PICTURE_ATTR,
-                TourContract.PoiEntry.COLUMN_NAME_PICTURE_URL
-        };
-
-        final int POI_TITLE = 0;
-        final int POI_DESCRIPTION = 1;
-        final int POI_TYPE = 2;
-        final int POI_LOCATION_LAT = 3;
-        final int POI_LOCATION_LNG = 4;
-        final int POI_PICTURE_ATTR = 5;
-        final int POI_PICTURE_URL = 6;
-    }
-
 }
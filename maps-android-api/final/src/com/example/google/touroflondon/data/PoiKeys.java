@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.google.touroflondon.data;
+
+import java.util.HashMap;
+
+/**
+ * Derives the keys that match the POIs of a tour file to their stored rows.
+ * The key of a POI is its id, or its title if it has no id. Entries that share
+ * a key are told apart by their occurrence in the file: the first keeps the
+ * plain key, later ones get the occurrence number appended, so that every
+ * entry keeps its row when the file is imported again. This class has no
+ * dependencies on the Android framework so that the build-time database
+ * generator derives exactly the same keys as the app.
+ */
+class PoiKeys {
+
+    private static final char OCCURRENCE_SEP = '#';
+
+    // Number of entries seen so far, by plain key
+    private final HashMap<String, Integer> mOccurrences = new HashMap<String, Integer>();
+
+    /**
+     * Returns the key of the next POI of the file, or null if it has neither
+     * an id nor a title.
+     *
+     * @param id
+     * @param title
+     * @return
+     */
+    String next(String id, String title) {
+        final String key = id != null ? id : title;
+        if (key == null) {
+            return null;
+        }
+        Integer previous = mOccurrences.get(key);
+        final int occurrence = previous != null ? previous + 1 : 1;
+        mOccurrences.put(key, occurrence);
+        return occurrence == 1 ? key : key + OCCURRENCE_SEP + occurrence;
+    }
+}
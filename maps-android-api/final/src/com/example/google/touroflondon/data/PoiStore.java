@@ -0,0 +1,821 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.google.touroflondon.data;
+
+import com.example.google.touroflondon.PointOfInterest;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import android.support.v4.util.LruCache;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Stores POIs as primitives instead of a {@link PointOfInterest} with a
+ * {@link LatLng} and five Strings each. Coordinates are stored in
+ * microdegrees and types as a code. POIs are sorted by ID and referenced by
+ * their index. A store is either built from arrays with a {@link Builder} or
+ * reads its values straight from the mapping of a {@link TourPack}, see
+ * {@link #of(TourPack)}.
+ * <p>
+ * The POIs within a bounding box are found through an index of the POIs
+ * sorted by their {@link SpatialGrid} cell, see {@link #getInBounds}.
+ * <p>
+ * Callers that need a {@link PointOfInterest} get one from
+ * {@link #get(int)} or {@link #asList()}. It is a view that only holds the
+ * store and the index of the POI, and reads each value from the store when it
+ * is requested, so POIs that are kept by the map cost a few bytes each. The
+ * last {@link #CACHE_SIZE} POIs are kept, so that POIs that are used
+ * repeatedly, such as those in the viewport, share one instance.
+ */
+public abstract class PoiStore {
+
+    private static final PointOfInterest.Type[] TYPES = PointOfInterest.Type.values();
+
+    /** Number of created POIs that are kept for reuse. */
+    private static final int CACHE_SIZE = 256;
+
+    // The strings of each POI in the arrays of a Builder, in order
+    private static final int STRINGS_PER_POI = 4;
+    private static final int STRING_TITLE = 0;
+    private static final int STRING_DESCRIPTION = 1;
+    private static final int STRING_PICTURE_ATTR = 2;
+    private static final int STRING_PICTURE_URL = 3;
+
+    /** Start of null strings in the pool. */
+    private static final int NO_STRING = -1;
+
+    // The POIs created last, by index
+    private final LruCache<Integer, PointOfInterest> mPois =
+            new LruCache<Integer, PointOfInterest>(CACHE_SIZE);
+
+    /**
+     * Returns a store that reads the POIs of the pack from its mapping. No
+     * values are copied, strings are decoded when they are requested.
+     *
+     * @param pack
+     * @return
+     */
+    public static PoiStore of(TourPack pack) {
+        return new PackStore(pack);
+    }
+
+    public abstract int size();
+
+    public abstract long getId(int index);
+
+    public abstract int getLatitudeE6(int index);
+
+    public abstract int getLongitudeE6(int index);
+
+    public abstract PointOfInterest.Type getType(int index);
+
+    public abstract String getTitle(int index);
+
+    public abstract String getDescription(int index);
+
+    public abstract String getPictureAttr(int index);
+
+    public abstract String getPictureUrl(int index);
+
+    /**
+     * Returns an estimate of the heap used by the store, in bytes, without
+     * the POIs that are kept for reuse.
+     */
+    public abstract long getHeapBytes();
+
+    /**
+     * Returns the index of the n-th POI in ascending order of
+     * {@link SpatialGrid} cell.
+     */
+    abstract int getPoiByCell(int n);
+
+    /**
+     * Returns the {@link SpatialGrid} cell of the n-th POI in ascending order
+     * of cell.
+     */
+    abstract long getSortedCell(int n);
+
+    /**
+     * Returns the index of the POI with the ID, or a negative number if there
+     * is none.
+     *
+     * @param id
+     * @return
+     */
+    public int indexOf(long id) {
+        int low = 0;
+        int high = size() - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final long midId = getId(mid);
+            if (midId < id) {
+                low = mid + 1;
+            } else if (midId > id) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Returns the location of the POI. A new object is returned on each call.
+     *
+     * @param index
+     * @return
+     */
+    public LatLng getLocation(int index) {
+        return new LatLng(TourPack.fromE6(getLatitudeE6(index)),
+                TourPack.fromE6(getLongitudeE6(index)));
+    }
+
+    /**
+     * Returns the POIs within the bounding box. Only the POIs in the grid
+     * cells that overlap the box are looked at, and only the POIs within the
+     * box are created.
+     *
+     * @param bounds
+     * @return
+     */
+    public List<PointOfInterest> getInBounds(LatLngBounds bounds) {
+        final double south = bounds.southwest.latitude;
+        final double west = bounds.southwest.longitude;
+        final double north = bounds.northeast.latitude;
+        final double east = bounds.northeast.longitude;
+
+        final int westColumn = SpatialGrid.column(west);
+        final int eastColumn = SpatialGrid.column(east);
+        ArrayList<PointOfInterest> pois = new ArrayList<PointOfInterest>();
+        for (int row = SpatialGrid.row(south); row <= SpatialGrid.row(north); row++) {
+            final long first = SpatialGrid.first(row);
+            if (west <= east) {
+                addInBounds(pois, first + westColumn, first + eastColumn, bounds);
+            } else {
+                // The bounds cross the 180th meridian
+                addInBounds(pois, first + westColumn, first + SpatialGrid.COLUMNS - 1, bounds);
+                addInBounds(pois, first, first + eastColumn, bounds);
+            }
+        }
+        return pois;
+    }
+
+    /**
+     * Adds the POIs in the range of cells that are within the bounding box.
+     */
+    private void addInBounds(List<PointOfInterest> pois, long firstCell, long lastCell,
+            LatLngBounds bounds) {
+        final int size = size();
+        // Find the first POI in the range
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (getSortedCell(mid) < firstCell) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        for (int i = low; i < size && getSortedCell(i) <= lastCell; i++) {
+            final int index = getPoiByCell(i);
+            // Cells at the edge of the box are only partly inside of it
+            if (isInBounds(index, bounds)) {
+                pois.add(get(index));
+            }
+        }
+    }
+
+    /**
+     * Returns true if the POI is within the bounding box, without creating
+     * any objects.
+     */
+    private boolean isInBounds(int index, LatLngBounds bounds) {
+        final double lat = TourPack.fromE6(getLatitudeE6(index));
+        if (lat < bounds.southwest.latitude || lat > bounds.northeast.latitude) {
+            return false;
+        }
+        final double lng = TourPack.fromE6(getLongitudeE6(index));
+        final double west = bounds.southwest.longitude;
+        final double east = bounds.northeast.longitude;
+        // The bounds may cross the 180th meridian
+        return west <= east ? lng >= west && lng <= east : lng >= west || lng <= east;
+    }
+
+    /**
+     * Returns a view of the POI at the index, creating it unless it has been
+     * accessed recently. No values are read until they are requested.
+     *
+     * @param index
+     * @return
+     */
+    public synchronized PointOfInterest get(int index) {
+        PointOfInterest poi = mPois.get(index);
+        if (poi == null) {
+            poi = new PoiView(this, index);
+            mPois.put(index, poi);
+        }
+        return poi;
+    }
+
+    /**
+     * Returns a list view of all POIs, ordered by ID. POIs are created when
+     * they are accessed through {@link List#get(int)}, see {@link #get(int)}.
+     *
+     * @return
+     */
+    public List<PointOfInterest> asList() {
+        return new PoiList();
+    }
+
+    /**
+     * Returns an estimate of the heap used by the same POIs as one
+     * {@link PointOfInterest}, {@link LatLng} and String per value each, in
+     * bytes.
+     */
+    public long getObjectHeapBytes() {
+        final int size = size();
+        long bytes = arrayBytes(size, 4) + size * (POI_BYTES + LAT_LNG_BYTES);
+        for (int i = 0; i < size; i++) {
+            bytes += stringBytes(getTitle(i)) + stringBytes(getDescription(i))
+                    + stringBytes(getPictureAttr(i)) + stringBytes(getPictureUrl(i));
+        }
+        return bytes;
+    }
+
+    // Object header, long ID and six references
+    private static final long POI_BYTES = align(8 + 8 + 6 * 4);
+    // Object header and two doubles
+    private static final long LAT_LNG_BYTES = align(8 + 2 * 8);
+    // Object header, char array reference, offset, count and hash
+    private static final long STRING_BYTES = align(8 + 4 * 4);
+
+    private static long stringBytes(String s) {
+        return s == null ? 0 : stringBytes(s.length());
+    }
+
+    private static long stringBytes(int length) {
+        return STRING_BYTES + arrayBytes(length, 2);
+    }
+
+    private static long arrayBytes(int length, int elementSize) {
+        // Object header and length
+        return align(12 + (long) length * elementSize);
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) / 8 * 8;
+    }
+
+    /**
+     * A POI that reads its values from the store when they are requested.
+     * Only the ID is kept, as it is used to look up the POI on every load.
+     */
+    private static class PoiView extends PointOfInterest {
+        private final PoiStore mStore;
+        private final int mIndex;
+        private final long mId;
+
+        PoiView(PoiStore store, int index) {
+            mStore = store;
+            mIndex = index;
+            mId = store.getId(index);
+        }
+
+        @Override
+        public long getId() {
+            return mId;
+        }
+
+        @Override
+        public String getTitle() {
+            return mStore.getTitle(mIndex);
+        }
+
+        @Override
+        public String getDescription() {
+            return mStore.getDescription(mIndex);
+        }
+
+        @Override
+        public Type getType() {
+            return mStore.getType(mIndex);
+        }
+
+        @Override
+        public double getLatitude() {
+            return TourPack.fromE6(mStore.getLatitudeE6(mIndex));
+        }
+
+        @Override
+        public double getLongitude() {
+            return TourPack.fromE6(mStore.getLongitudeE6(mIndex));
+        }
+
+        @Override
+        public String getPictureUrl() {
+            return mStore.getPictureUrl(mIndex);
+        }
+
+        @Override
+        public String getPictureAttr() {
+            return mStore.getPictureAttr(mIndex);
+        }
+
+        @Override
+        public boolean hasSameContent(PointOfInterest other) {
+            if (other instanceof PoiView) {
+                // Views of the same row do not need to decode any strings
+                PoiView view = (PoiView) other;
+                if (view.mStore == mStore && view.mIndex == mIndex) {
+                    return true;
+                }
+            }
+            return super.hasSameContent(other);
+        }
+    }
+
+    /**
+     * Read-only list of the POIs of the store.
+     */
+    private class PoiList extends AbstractList<PointOfInterest> implements RandomAccess {
+        @Override
+        public PointOfInterest get(int location) {
+            if (location < 0 || location >= size()) {
+                throw new IndexOutOfBoundsException();
+            }
+            return PoiStore.this.get(location);
+        }
+
+        @Override
+        public int size() {
+            return PoiStore.this.size();
+        }
+    }
+
+    /**
+     * A store of POIs in arrays, built by a {@link Builder}. All strings are
+     * kept in a single shared char array, where equal strings, such as
+     * repeated attributions, are only stored once. The licenses of picture
+     * attributions and the prefixes of picture URLs are split off, see
+     * {@link TourDictionary}, and kept as one String instance each that is
+     * shared by all POIs.
+     */
+    private static class ArrayStore extends PoiStore {
+
+        private final int mSize;
+        private final long[] mIds;
+        private final int[] mLatE6;
+        private final int[] mLngE6;
+        private final byte[] mTypes;
+
+        // Start and length in mPool of each string of each POI. The picture
+        // attribution and URL are stored without their shared parts.
+        private final int[] mStringStarts;
+        private final int[] mStringLengths;
+        private final char[] mPool;
+
+        // Index in mShared of the shared parts of each POI, or NO_STRING
+        private final int[] mLicenses;
+        private final int[] mUrlPrefixes;
+        private final String[] mShared;
+
+        // Indexes of the POIs in ascending order of their SpatialGrid cell, and
+        // the cell of each of them
+        private final int[] mCellOrder;
+        private final long[] mCells;
+
+        ArrayStore(Builder builder) {
+            mSize = builder.mSize;
+
+            final int[] order = sortById(builder.mIds, mSize);
+
+            mIds = new long[mSize];
+            mLatE6 = new int[mSize];
+            mLngE6 = new int[mSize];
+            mTypes = new byte[mSize];
+            mStringStarts = new int[mSize * STRINGS_PER_POI];
+            mStringLengths = new int[mSize * STRINGS_PER_POI];
+            mLicenses = new int[mSize];
+            mUrlPrefixes = new int[mSize];
+            for (int i = 0; i < mSize; i++) {
+                final int from = order[i];
+                mIds[i] = builder.mIds[from];
+                mLatE6[i] = builder.mLatE6[from];
+                mLngE6[i] = builder.mLngE6[from];
+                mTypes[i] = builder.mTypes[from];
+                mLicenses[i] = builder.mLicenses[from];
+                mUrlPrefixes[i] = builder.mUrlPrefixes[from];
+                System.arraycopy(builder.mStringStarts, from * STRINGS_PER_POI, mStringStarts,
+                        i * STRINGS_PER_POI, STRINGS_PER_POI);
+                System.arraycopy(builder.mStringLengths, from * STRINGS_PER_POI,
+                        mStringLengths, i * STRINGS_PER_POI, STRINGS_PER_POI);
+            }
+            mPool = Arrays.copyOf(builder.mPool, builder.mPoolSize);
+            mShared = builder.mShared.toArray(new String[builder.mShared.size()]);
+
+            mCellOrder = SpatialGrid.sortByCell(mLatE6, mLngE6, mSize);
+            mCells = new long[mSize];
+            for (int i = 0; i < mSize; i++) {
+                mCells[i] = SpatialGrid.cellE6(mLatE6[mCellOrder[i]], mLngE6[mCellOrder[i]]);
+            }
+        }
+
+        /**
+         * Returns the indexes of the IDs in ascending order of ID.
+         */
+        private static int[] sortById(final long[] ids, int size) {
+            final int[] order = new int[size];
+            boolean sorted = true;
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+                sorted &= i == 0 || ids[i - 1] <= ids[i];
+            }
+            if (sorted) {
+                // POIs are usually added in order of ID
+                return order;
+            }
+
+            Integer[] boxed = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                boxed[i] = i;
+            }
+            Arrays.sort(boxed, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer lhs, Integer rhs) {
+                    final long a = ids[lhs];
+                    final long b = ids[rhs];
+                    return a < b ? -1 : (a == b ? 0 : 1);
+                }
+            });
+            for (int i = 0; i < size; i++) {
+                order[i] = boxed[i];
+            }
+            return order;
+        }
+
+        @Override
+        public int size() {
+            return mSize;
+        }
+
+        @Override
+        public int indexOf(long id) {
+            return Arrays.binarySearch(mIds, id);
+        }
+
+        @Override
+        public long getId(int index) {
+            return mIds[index];
+        }
+
+        @Override
+        public int getLatitudeE6(int index) {
+            return mLatE6[index];
+        }
+
+        @Override
+        public int getLongitudeE6(int index) {
+            return mLngE6[index];
+        }
+
+        @Override
+        public PointOfInterest.Type getType(int index) {
+            return TYPES[mTypes[index]];
+        }
+
+        @Override
+        public String getTitle(int index) {
+            return getString(index, STRING_TITLE);
+        }
+
+        @Override
+        public String getDescription(int index) {
+            return getString(index, STRING_DESCRIPTION);
+        }
+
+        @Override
+        public String getPictureAttr(int index) {
+            return TourDictionary.joinLicense(getString(index, STRING_PICTURE_ATTR),
+                    getShared(mLicenses[index]));
+        }
+
+        @Override
+        public String getPictureUrl(int index) {
+            return TourDictionary.joinUrlPrefix(getShared(mUrlPrefixes[index]),
+                    getString(index, STRING_PICTURE_URL));
+        }
+
+        @Override
+        int getPoiByCell(int n) {
+            return mCellOrder[n];
+        }
+
+        @Override
+        long getSortedCell(int n) {
+            return mCells[n];
+        }
+
+        @Override
+        public long getHeapBytes() {
+            return arrayBytes(mIds.length, 8) + 2 * arrayBytes(mSize, 4) + arrayBytes(mSize, 1)
+                    + 2 * arrayBytes(mStringStarts.length, 4) + arrayBytes(mPool.length, 2)
+                    + 2 * arrayBytes(mSize, 4) + arrayBytes(mSize, 4) + arrayBytes(mSize, 8)
+                    + getSharedHeapBytes();
+        }
+
+        @Override
+        public long getObjectHeapBytes() {
+            // Computed from the string lengths, without creating the strings
+            long bytes = arrayBytes(mSize, 4) + mSize * (POI_BYTES + LAT_LNG_BYTES);
+            for (int i = 0; i < mStringLengths.length; i++) {
+                if (mStringStarts[i] != NO_STRING) {
+                    int length = mStringLengths[i];
+                    // Count the shared parts as part of every string
+                    final int poi = i / STRINGS_PER_POI;
+                    if (i % STRINGS_PER_POI == STRING_PICTURE_ATTR) {
+                        length += getSharedLength(mLicenses[poi]);
+                    } else if (i % STRINGS_PER_POI == STRING_PICTURE_URL) {
+                        length += getSharedLength(mUrlPrefixes[poi]);
+                    }
+                    bytes += stringBytes(length);
+                }
+            }
+            return bytes;
+        }
+
+        /**
+         * Returns an estimate of the heap used by the shared strings.
+         */
+        private long getSharedHeapBytes() {
+            long bytes = arrayBytes(mShared.length, 4);
+            for (String shared : mShared) {
+                bytes += stringBytes(shared);
+            }
+            return bytes;
+        }
+
+        private String getShared(int index) {
+            return index == NO_STRING ? null : mShared[index];
+        }
+
+        private int getSharedLength(int index) {
+            return index == NO_STRING ? 0 : mShared[index].length();
+        }
+
+        private String getString(int index, int string) {
+            final int i = index * STRINGS_PER_POI + string;
+            final int start = mStringStarts[i];
+            return start == NO_STRING ? null : new String(mPool, start, mStringLengths[i]);
+        }
+
+        @Override
+        public String toString() {
+            return "POI store: " + mSize + " POIs, " + mPool.length + " pooled chars, "
+                    + mShared.length + " shared strings, about "
+                    + getHeapBytes() + " bytes, " + getObjectHeapBytes() + " bytes as objects";
+        }
+    }
+
+    /**
+     * A store that reads the POIs of a {@link TourPack} from its mapping. Only
+     * the types are looked up once, all other values are read on access.
+     */
+    private static class PackStore extends PoiStore {
+
+        private final TourPack mPack;
+
+        // The type of each type code of the pack
+        private final PointOfInterest.Type[] mTypes;
+
+        PackStore(TourPack pack) {
+            mPack = pack;
+            mTypes = new PointOfInterest.Type[pack.getTypeCount()];
+            for (int i = 0; i < mTypes.length; i++) {
+                mTypes[i] = PointOfInterest.Type.valueOf(pack.getTypeName(i));
+            }
+        }
+
+        @Override
+        public int size() {
+            return mPack.getPoiCount();
+        }
+
+        @Override
+        public long getId(int index) {
+            return mPack.getPoiId(index);
+        }
+
+        @Override
+        public int getLatitudeE6(int index) {
+            return mPack.getLatitudeE6(index);
+        }
+
+        @Override
+        public int getLongitudeE6(int index) {
+            return mPack.getLongitudeE6(index);
+        }
+
+        @Override
+        public PointOfInterest.Type getType(int index) {
+            return mTypes[mPack.getTypeCode(index)];
+        }
+
+        @Override
+        public String getTitle(int index) {
+            return mPack.getTitle(index);
+        }
+
+        @Override
+        public String getDescription(int index) {
+            return mPack.getDescription(index);
+        }
+
+        @Override
+        public String getPictureAttr(int index) {
+            return mPack.getPictureAttr(index);
+        }
+
+        @Override
+        public String getPictureUrl(int index) {
+            return mPack.getPictureUrl(index);
+        }
+
+        @Override
+        int getPoiByCell(int n) {
+            return mPack.getPoiByCell(n);
+        }
+
+        @Override
+        long getSortedCell(int n) {
+            return mPack.getSortedCell(n);
+        }
+
+        @Override
+        public long getHeapBytes() {
+            // The values are in the mapping, not on the heap
+            return arrayBytes(mTypes.length, 4);
+        }
+
+        @Override
+        public String toString() {
+            return "POI store: " + size() + " POIs mapped from a pack, about "
+                    + getHeapBytes() + " bytes";
+        }
+    }
+
+    /**
+     * Collects POIs for a {@link PoiStore}.
+     */
+    public static class Builder {
+        private int mSize = 0;
+        private long[] mIds = new long[16];
+        private int[] mLatE6 = new int[16];
+        private int[] mLngE6 = new int[16];
+        private byte[] mTypes = new byte[16];
+        private int[] mStringStarts = new int[16 * STRINGS_PER_POI];
+        private int[] mStringLengths = new int[16 * STRINGS_PER_POI];
+        private int[] mLicenses = new int[16];
+        private int[] mUrlPrefixes = new int[16];
+
+        private char[] mPool = new char[1024];
+        private int mPoolSize = 0;
+        private final HashMap<String, Integer> mPooled = new HashMap<String, Integer>();
+
+        private final ArrayList<String> mShared = new ArrayList<String>();
+        private final HashMap<String, Integer> mSharedIndexes = new HashMap<String, Integer>();
+
+        /**
+         * Adds a POI. The strings may be null.
+         *
+         * @param id
+         * @param title
+         * @param description
+         * @param type
+         * @param latE6 Latitude in microdegrees
+         * @param lngE6 Longitude in microdegrees
+         * @param pictureAttr
+         * @param pictureUrl
+         */
+        public void add(long id, String title, String description, PointOfInterest.Type type,
+                int latE6, int lngE6, String pictureAttr, String pictureUrl) {
+            add(id, title, description, type, latE6, lngE6,
+                    pictureAttr != null ? TourDictionary.stripLicense(pictureAttr) : null,
+                    pictureAttr != null ? TourDictionary.getLicense(pictureAttr) : null,
+                    pictureUrl != null ? TourDictionary.getUrlPrefix(pictureUrl) : null,
+                    pictureUrl != null ? TourDictionary.stripUrlPrefix(pictureUrl) : null);
+        }
+
+        /**
+         * Adds a POI whose picture attribution and URL have been split into
+         * their parts, see {@link TourDictionary}. The strings may be null.
+         * The instances of the license and URL prefix are kept and shared by
+         * all POIs with an equal license or prefix.
+         *
+         * @param id
+         * @param title
+         * @param description
+         * @param type
+         * @param latE6 Latitude in microdegrees
+         * @param lngE6 Longitude in microdegrees
+         * @param pictureAttr The attribution without its license
+         * @param pictureLicense
+         * @param pictureUrlPrefix
+         * @param pictureUrl The URL without its prefix
+         */
+        public void add(long id, String title, String description, PointOfInterest.Type type,
+                int latE6, int lngE6, String pictureAttr, String pictureLicense,
+                String pictureUrlPrefix, String pictureUrl) {
+            if (mSize == mIds.length) {
+                final int capacity = mSize * 2;
+                mIds = Arrays.copyOf(mIds, capacity);
+                mLatE6 = Arrays.copyOf(mLatE6, capacity);
+                mLngE6 = Arrays.copyOf(mLngE6, capacity);
+                mTypes = Arrays.copyOf(mTypes, capacity);
+                mStringStarts = Arrays.copyOf(mStringStarts, capacity * STRINGS_PER_POI);
+                mStringLengths = Arrays.copyOf(mStringLengths, capacity * STRINGS_PER_POI);
+                mLicenses = Arrays.copyOf(mLicenses, capacity);
+                mUrlPrefixes = Arrays.copyOf(mUrlPrefixes, capacity);
+            }
+            mIds[mSize] = id;
+            mLatE6[mSize] = latE6;
+            mLngE6[mSize] = lngE6;
+            mTypes[mSize] = (byte) type.ordinal();
+            final int strings = mSize * STRINGS_PER_POI;
+            pool(strings + STRING_TITLE, title);
+            pool(strings + STRING_DESCRIPTION, description);
+            pool(strings + STRING_PICTURE_ATTR, pictureAttr);
+            pool(strings + STRING_PICTURE_URL, pictureUrl);
+            mLicenses[mSize] = share(pictureLicense);
+            mUrlPrefixes[mSize] = share(pictureUrlPrefix);
+            mSize++;
+        }
+
+        public PoiStore build() {
+            return new ArrayStore(this);
+        }
+
+        /**
+         * Returns the index of the shared string, adding it unless an equal
+         * string has already been added, or NO_STRING for null.
+         */
+        private int share(String s) {
+            if (s == null) {
+                return NO_STRING;
+            }
+            Integer index = mSharedIndexes.get(s);
+            if (index == null) {
+                index = mShared.size();
+                mShared.add(s);
+                mSharedIndexes.put(s, index);
+            }
+            return index;
+        }
+
+        /**
+         * Adds the string to the pool, unless an equal string has already
+         * been added, and stores its start and length at the index.
+         */
+        private void pool(int index, String s) {
+            if (s == null) {
+                mStringStarts[index] = NO_STRING;
+                mStringLengths[index] = 0;
+                return;
+            }
+            Integer start = mPooled.get(s);
+            if (start == null) {
+                final int size = mPoolSize + s.length();
+                if (size > mPool.length) {
+                    mPool = Arrays.copyOf(mPool, Math.max(mPool.length * 2, size));
+                }
+                s.getChars(0, s.length(), mPool, mPoolSize);
+                start = mPoolSize;
+                mPooled.put(s, start);
+                mPoolSize += s.length();
+            }
+            mStringStarts[index] = start;
+            mStringLengths[index] = s.length();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.google.touroflondon.data;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Compact binary encoding of a run of route points, stored as a BLOB per route
+ * segment. Coordinates are quantised to 1e-6 degrees (about 11cm) and each
+ * point is stored as the difference to the previous point, zigzag encoded into
+ * a variable length integer of 7 bits per byte. Consecutive points along a
+ * route are close together, so most points take 2-4 bytes instead of the 16
+ * bytes of two doubles.
+ * <p>
+ * This class has no dependencies on the Android framework and is shared with
+ * the build-time database generator.
+ */
+public class RouteCodec {
+
+    /** Number of quantisation steps per degree. */
+    private static final double E6 = 1e6;
+
+    // prevent instantiation
+    private RouteCodec() {
+    }
+
+    /**
+     * Encodes the first count points.
+     *
+     * @param lat Latitudes in degrees
+     * @param lng Longitudes in degrees
+     * @param count
+     * @return
+     */
+    public static byte[] encode(double[] lat, double[] lng, int count) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(count * 4);
+        int previousLat = 0;
+        int previousLng = 0;
+        for (int i = 0; i < count; i++) {
+            final int latE6 = (int) Math.round(lat[i] * E6);
+            final int lngE6 = (int) Math.round(lng[i] * E6);
+            writeVarint(out, latE6 - previousLat);
+            writeVarint(out, lngE6 - previousLng);
+            previousLat = latE6;
+            previousLng = lngE6;
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes points that were encoded with {@link #encode}.
+     *
+     * @param data
+     * @param count Number of points in the data
+     * @param lat Array that receives the latitudes, at least count long
+     * @param lng Array that receives the longitudes, at least count long
+     */
+    public static void decode(byte[] data, int count, double[] lat, double[] lng) {
+        int position = 0;
+        int latE6 = 0;
+        int lngE6 = 0;
+        for (int i = 0; i < count; i++) {
+            // Each value is a zigzag encoded varint, see writeVarint
+            int shift = 0;
+            int value = 0;
+            int b;
+            do {
+                b = data[position++];
+                value |= (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            latE6 += (value >>> 1) ^ -(value & 1);
+
+            shift = 0;
+            value = 0;
+            do {
+                b = data[position++];
+                value |= (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            lngE6 += (value >>> 1) ^ -(value & 1);
+
+            lat[i] = latE6 / E6;
+            lng[i] = lngE6 / E6;
+        }
+    }
+
+    /**
+     * Writes a signed value as a zigzag encoded varint: the sign is moved into
+     * the lowest bit so that small negative values stay small, then 7 bits are
+     * written per byte with the high bit set on all but the last byte.
+     */
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        int zigzag = (value << 1) ^ (value >> 31);
+        while ((zigzag & ~0x7f) != 0) {
+            out.write((zigzag & 0x7f) | 0x80);
+            zigzag >>>= 7;
+        }
+        out.write(zigzag);
+    }
+}
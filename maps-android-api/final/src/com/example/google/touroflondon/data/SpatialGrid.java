@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.google.touroflondon.data;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A fixed grid over the globe used as a spatial index for POIs. Cells are
+ * numbered row by row from the south-west, so the cells of one row between
+ * two columns form a contiguous range of numbers. In the database each POI
+ * stores its cell in a column with a B-tree index, see
+ * {@link #selection}. A {@link PoiStore} finds the POIs of a bounding box by
+ * binary search in the POIs sorted by cell.
+ * <p>
+ * This class has no dependencies on the Android framework and is shared with
+ * the build-time database generator.
+ */
+public class SpatialGrid {
+
+    /** Size of a grid cell in degrees, about 1.1km in latitude. */
+    public static final double CELL_SIZE = 0.01;
+
+    /** Number of cells in each row of the grid. */
+    public static final int COLUMNS = (int) Math.round(360 / CELL_SIZE);
+
+    /** Number of rows of the grid. */
+    public static final int ROWS = (int) Math.round(180 / CELL_SIZE);
+
+    /**
+     * Maximum number of rows that are queried as separate cell ranges, larger
+     * areas are queried as a single range spanning all their rows.
+     */
+    private static final int MAX_QUERY_ROWS = 32;
+
+    // prevent instantiation
+    private SpatialGrid() {
+    }
+
+    /**
+     * Returns the number of the cell that contains the location.
+     */
+    public static long cell(double lat, double lng) {
+        return first(row(lat)) + column(lng);
+    }
+
+    /**
+     * Returns the number of the cell that contains the location in
+     * microdegrees.
+     */
+    public static long cellE6(int latE6, int lngE6) {
+        return cell(TourPack.fromE6(latE6), TourPack.fromE6(lngE6));
+    }
+
+    /**
+     * Returns the indexes of the locations in ascending order of their cell.
+     *
+     * @param latE6 Latitudes in microdegrees
+     * @param lngE6 Longitudes in microdegrees
+     * @param size Number of locations
+     * @return
+     */
+    public static int[] sortByCell(int[] latE6, int[] lngE6, int size) {
+        final long[] cells = new long[size];
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            cells[i] = cellE6(latE6[i], lngE6[i]);
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                final long a = cells[lhs];
+                final long b = cells[rhs];
+                return a < b ? -1 : (a == b ? 0 : 1);
+            }
+        });
+        int[] indexes = new int[size];
+        for (int i = 0; i < size; i++) {
+            indexes[i] = order[i];
+        }
+        return indexes;
+    }
+
+    /**
+     * Returns the number of the first cell of the row.
+     */
+    public static long first(int row) {
+        return (long) row * COLUMNS;
+    }
+
+    /**
+     * Returns the row that contains the latitude.
+     */
+    public static int row(double lat) {
+        return clamp((int) Math.floor((lat + 90) / CELL_SIZE), ROWS);
+    }
+
+    /**
+     * Returns the column that contains the longitude.
+     */
+    public static int column(double lng) {
+        return clamp((int) Math.floor((lng + 180) / CELL_SIZE), COLUMNS);
+    }
+
+    private static int clamp(int value, int count) {
+        return Math.max(0, Math.min(count - 1, value));
+    }
+
+    /**
+     * Returns an SQL selection for all rows whose cell and location columns lie
+     * within the bounding box. The cell ranges select candidate rows through
+     * the index on the cell column, the location columns then filter out the
+     * rows in the edge cells that are outside of the box. A box with west
+     * greater than east crosses the 180th meridian.
+     *
+     * @param cellColumn Name of the cell column
+     * @param latColumn Name of the latitude column
+     * @param lngColumn Name of the longitude column
+     * @param south
+     * @param west
+     * @param north
+     * @param east
+     * @return
+     */
+    public static String selection(String cellColumn, String latColumn, String lngColumn,
+            double south, double west, double north, double east) {
+        final int firstRow = row(south);
+        final int lastRow = row(north);
+        final boolean crossesMeridian = west > east;
+
+        StringBuilder sb = new StringBuilder("(");
+        if (lastRow - firstRow >= MAX_QUERY_ROWS) {
+            // Select the complete rows in a single range
+            appendRange(sb, cellColumn, first(firstRow), first(lastRow) + COLUMNS - 1);
+        } else {
+            for (int row = firstRow; row <= lastRow; row++) {
+                final long rowStart = first(row);
+                if (row > firstRow) {
+                    sb.append(" OR ");
+                }
+                if (crossesMeridian) {
+                    appendRange(sb, cellColumn, rowStart + column(west), rowStart + COLUMNS - 1);
+                    sb.append(" OR ");
+                    appendRange(sb, cellColumn, rowStart, rowStart + column(east));
+                } else {
+                    appendRange(sb, cellColumn, rowStart + column(west), rowStart + column(east));
+                }
+            }
+        }
+        sb.append(") AND ").append(latColumn).append(" BETWEEN ").append(south)
+                .append(" AND ").append(north);
+        if (crossesMeridian) {
+            sb.append(" AND (").append(lngColumn).append(">=").append(west)
+                    .append(" OR ").append(lngColumn).append("<=").append(east).append(")");
+        } else {
+            sb.append(" AND ").append(lngColumn).append(" BETWEEN ").append(west)
+                    .append(" AND ").append(east);
+        }
+        return sb.toString();
+    }
+
+    private static void appendRange(StringBuilder sb, String column, long first, long last) {
+        sb.append(column).append(" BETWEEN ").append(first).append(" AND ").append(last);
+    }
+}
@@ -25,27 +25,87 @@ public class TourContract {
 
     public static abstract class PoiEntry implements BaseColumns {
         public static final String TABLE_NAME = "poi";
+        /**
+         * Stable key of the source entry, its id in tour.json or its title if
+         * it has none. Used to update the row in place on re-import, so that
+         * the _ID of a POI does not change when its data changes.
+         */
+        public static final String COLUMN_NAME_KEY = "key";
         public static final String COLUMN_NAME_TITLE = "title";
         public static final String COLUMN_NAME_TYPE = "type";
         public static final String COLUMN_NAME_DESCRIPTION = "description";
         public static final String COLUMN_NAME_LOCATION_LAT = "latitude";
         public static final String COLUMN_NAME_LOCATION_LNG = "longitude";
+        /** The picture URL without its prefix, see {@link TourDictionary}. */
         public static final String COLUMN_NAME_PICTURE_URL = "pictureUrl";
+        /** {@link DictionaryEntry} ID of the prefix of the picture URL. */
+        public static final String COLUMN_NAME_PICTURE_URL_PREFIX = "pictureUrlPrefix";
+        /** The picture attribution without its license, see {@link TourDictionary}. */
         public static final String COLUMN_NAME_PICTURE_ATTR = "pictureAttr";
+        /** {@link DictionaryEntry} ID of the license of the picture attribution. */
+        public static final String COLUMN_NAME_PICTURE_LICENSE = "pictureLicense";
+        /** Hash of the source entry, used to detect changes on re-import. */
+        public static final String COLUMN_NAME_HASH = "hash";
+        /** {@link SpatialGrid} cell of the location, used as spatial index. */
+        public static final String COLUMN_NAME_CELL = "cell";
 
         // prevent instantiation
         private PoiEntry() {
         }
     }
 
+    /**
+     * The route, stored in fixed size segments of points. The _ID is the
+     * index of the segment along the route, the points are encoded with
+     * {@link RouteCodec}.
+     */
     public static abstract class RouteEntry implements BaseColumns {
         public static final String TABLE_NAME = "route";
-        public static final String COLUMN_NAME_LAT = "lat";
-        public static final String COLUMN_NAME_LNG = "lng";
+        /** Number of points in the segment. */
+        public static final String COLUMN_NAME_COUNT = "count";
+        /** Points of the segment, encoded by {@link RouteCodec}. */
+        public static final String COLUMN_NAME_POINTS = "points";
+        /** Hash of the source points, used to detect changes on re-import. */
+        public static final String COLUMN_NAME_HASH = "hash";
+        /** {@link SpatialGrid} cell of the location, used as spatial index. */
+        public static final String COLUMN_NAME_CELL = "cell";
+
+        /** Maximum number of route points per segment. */
+        public static final int POINTS_PER_SEGMENT = 256;
 
         // prevent instantiation
         private RouteEntry() {
         }
     }
 
+    /**
+     * Strings shared by many POIs, such as the licenses of picture
+     * attributions and the prefixes of picture URLs. Each string is stored
+     * once and referenced by its _ID.
+     */
+    public static abstract class DictionaryEntry implements BaseColumns {
+        public static final String TABLE_NAME = "dictionary";
+        public static final String COLUMN_NAME_VALUE = "value";
+
+        // prevent instantiation
+        private DictionaryEntry() {
+        }
+    }
+
+    /**
+     * Key-value pairs describing the imported data.
+     */
+    public static abstract class MetadataEntry {
+        public static final String TABLE_NAME = "metadata";
+        public static final String COLUMN_NAME_KEY = "key";
+        public static final String COLUMN_NAME_VALUE = "value";
+
+        /** Key for the hash of the tour.json file the data was imported from. */
+        public static final String KEY_SOURCE_HASH = "sourceHash";
+
+        // prevent instantiation
+        private MetadataEntry() {
+        }
+    }
+
 }
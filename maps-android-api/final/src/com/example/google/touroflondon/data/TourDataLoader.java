@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.google.touroflondon.data;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+
+/**
+ * An {@link AsyncTaskLoader} for data derived from the {@link TourSnapshot}
+ * of the {@link TourRepository}. Override {@link #load(TourSnapshot)} to
+ * return the data; it runs on the worker thread together with the loading of
+ * the snapshot, so that the UI thread only receives the finished result.
+ */
+public abstract class TourDataLoader<D> extends AsyncTaskLoader<D> {
+
+    private D mData;
+
+    public TourDataLoader(Context context) {
+        super(context);
+    }
+
+    /**
+     * Returns the data of the snapshot. Runs on a worker thread.
+     *
+     * @param snapshot
+     * @return
+     */
+    protected abstract D load(TourSnapshot snapshot);
+
+    /* Runs on a worker thread */
+    @Override
+    public D loadInBackground() {
+        return load(TourRepository.getInstance(getContext()).getSnapshot());
+    }
+
+    /* Runs on the UI thread */
+    @Override
+    public void deliverResult(D data) {
+        if (isReset()) {
+            return;
+        }
+        mData = data;
+        if (isStarted()) {
+            super.deliverResult(data);
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (mData != null) {
+            deliverResult(mData);
+        }
+        if (takeContentChanged() || mData == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        mData = null;
+    }
+}
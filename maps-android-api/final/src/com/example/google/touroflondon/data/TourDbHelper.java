@@ -16,15 +16,19 @@
 
 package com.example.google.touroflondon.data;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
+import com.google.android.gms.maps.model.LatLngBounds;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 /**
  * A database helper for tour data. This class encapsulates access to an
@@ -32,59 +36,123 @@ import android.database.sqlite.SQLiteOpenHelper;
  */
 public class TourDbHelper extends SQLiteOpenHelper {
 
-    public static final int DATABASE_VERSION = 1;
+    private static final String TAG = "TourDbHelper";
+
+    public static final int DATABASE_VERSION = TourSchema.VERSION;
     public static final String DATABASE_NAME = "TourOfLondon.db";
 
-    // Database field types and constructs, used to create tables
-    private static final String TEXT_TYPE = " TEXT";
-    private static final String DOUBLE_TYPE = " DOUBLE";
-    private static final String COMMA_SEP = ",";
-
-    // SQL statement that creates a table for POI entries
-    private static final String SQL_CREATE_ENTRIES_POI =
-            "CREATE TABLE " + TourContract.PoiEntry.TABLE_NAME + " (" +
-                    TourContract.PoiEntry._ID + " INTEGER PRIMARY KEY," +
-                    TourContract.PoiEntry.COLUMN_NAME_TITLE + TEXT_TYPE + COMMA_SEP +
-                    TourContract.PoiEntry.COLUMN_NAME_TYPE + TEXT_TYPE + COMMA_SEP +
-                    TourContract.PoiEntry.COLUMN_NAME_LOCATION_LAT + DOUBLE_TYPE + COMMA_SEP +
-                    TourContract.PoiEntry.COLUMN_NAME_LOCATION_LNG + DOUBLE_TYPE + COMMA_SEP +
-                    TourContract.PoiEntry.COLUMN_NAME_DESCRIPTION + TEXT_TYPE + COMMA_SEP +
-                    TourContract.PoiEntry.COLUMN_NAME_PICTURE_URL + TEXT_TYPE + COMMA_SEP +
-                    TourContract.PoiEntry.COLUMN_NAME_PICTURE_ATTR + TEXT_TYPE +
-                    " )";
-
-    // SQL statement that creates a table of route points
-    private static final String SQL_CREATE_ENTRIES_ROUTE =
-            "CREATE TABLE " + TourContract.RouteEntry.TABLE_NAME + " (" +
-                    TourContract.RouteEntry._ID + " INTEGER PRIMARY KEY," +
-                    TourContract.RouteEntry.COLUMN_NAME_LAT + DOUBLE_TYPE + COMMA_SEP +
-                    TourContract.RouteEntry.COLUMN_NAME_LNG + DOUBLE_TYPE +
-                    " )";
+    /**
+     * Name of the prebuilt database in the assets, generated at build time
+     * from tour.json by TourDbGenerator.
+     */
+    public static final String PREBUILT_DATABASE_ASSET = DATABASE_NAME;
 
     // SQL statement that removes the table of POIs
     private static final String SQL_DROP_POI =
             "DROP TABLE IF EXISTS " + TourContract.PoiEntry.TABLE_NAME;
-    // SQL statement that removes the table of route points
+    // SQL statement that removes the table of route segments
     private static final String SQL_DROP_ROUTE =
             "DROP TABLE IF EXISTS " + TourContract.RouteEntry.TABLE_NAME;
+    // SQL statement that removes the table of route segment hashes of
+    // version 2
+    private static final String SQL_DROP_ROUTE_SEGMENT =
+            "DROP TABLE IF EXISTS route_segment";
+    // SQL statement that removes the dictionary
+    private static final String SQL_DROP_DICTIONARY =
+            "DROP TABLE IF EXISTS " + TourContract.DictionaryEntry.TABLE_NAME;
+    // SQL statement that removes the metadata table
+    private static final String SQL_DROP_METADATA =
+            "DROP TABLE IF EXISTS " + TourContract.MetadataEntry.TABLE_NAME;
 
     public TourDbHelper(Context c) {
         super(c, DATABASE_NAME, null, DATABASE_VERSION);
     }
 
+    /**
+     * Copies the prebuilt database from the assets into place, unless a
+     * database already exists or no prebuilt database has been packaged with
+     * the app. A copied database already contains the source hash of the
+     * tour.json it was generated from, so no data needs to be imported.
+     * <p>
+     * Must be called before the database is opened for the first time.
+     * 
+     * @param context
+     * @return True if the prebuilt database has been installed
+     */
+    public static boolean installPrebuiltDatabase(Context context) {
+        File database = context.getDatabasePath(DATABASE_NAME);
+        if (database.exists()) {
+            return false;
+        }
+        return copyAsset(context, PREBUILT_DATABASE_ASSET, database);
+    }
+
+    /**
+     * Copies an asset to the file, replacing it. The asset is copied to a
+     * temporary file first so that an interrupted copy does not leave a
+     * broken file behind.
+     *
+     * @param context
+     * @param asset
+     * @param file
+     * @return True if the asset has been copied, false if there is no such
+     *         asset or it could not be copied
+     */
+    static boolean copyAsset(Context context, String asset, File file) {
+        InputStream in;
+        try {
+            in = context.getAssets().open(asset);
+        } catch (IOException e) {
+            // Not packaged with the app
+            return false;
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            file.getParentFile().mkdirs();
+            OutputStream out = new FileOutputStream(tmp);
+            try {
+                byte[] buffer = new byte[8192];
+                int length;
+                while ((length = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, length);
+                }
+            } finally {
+                out.close();
+            }
+            return tmp.renameTo(file);
+
+        } catch (IOException e) {
+            Log.w(TAG, "Could not copy asset " + asset + ".", e);
+            tmp.delete();
+            return false;
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // Ignore, the asset has already been read
+            }
+        }
+    }
+
     @Override
     public void onCreate(SQLiteDatabase db) {
-        // Create the two table
-        db.execSQL(SQL_CREATE_ENTRIES_POI);
-        db.execSQL(SQL_CREATE_ENTRIES_ROUTE);
+        // Create the tables
+        for (String sql : TourSchema.SQL_CREATE_SCHEMA) {
+            db.execSQL(sql);
+        }
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // On database upgrade remove both tables and create them again.
+        // On database upgrade remove all tables and create them again. The
+        // source hash is removed with them, which triggers a full import.
         // TODO: An application should handle graceful database upgrades
         db.execSQL(SQL_DROP_POI);
         db.execSQL(SQL_DROP_ROUTE);
+        db.execSQL(SQL_DROP_ROUTE_SEGMENT);
+        db.execSQL(SQL_DROP_DICTIONARY);
+        db.execSQL(SQL_DROP_METADATA);
         onCreate(db);
     }
 
@@ -103,121 +171,91 @@ public class TourDbHelper extends SQLiteOpenHelper {
     }
 
     /**
-     * Returns a {@link Cursor} for all route point entries with the given
-     * projection.
+     * Returns a {@link Cursor} for all POIs within the bounding box with the
+     * given projection. The POIs are looked up through the index on their
+     * {@link SpatialGrid} cell, the bounds may cross the 180th meridian.
      * 
      * @param projection
+     * @param bounds
      * @return
      */
-    public Cursor getRoute(String[] projection) {
+    public Cursor getPoiInBounds(String[] projection, LatLngBounds bounds) {
         SQLiteDatabase db = this.getReadableDatabase();
 
-        // select all entries from route point table
-        return db.query(TourContract.RouteEntry.TABLE_NAME,
-                projection, null, null, null, null, null);
+        String selection = SpatialGrid.selection(TourContract.PoiEntry.COLUMN_NAME_CELL,
+                TourContract.PoiEntry.COLUMN_NAME_LOCATION_LAT,
+                TourContract.PoiEntry.COLUMN_NAME_LOCATION_LNG,
+                bounds.southwest.latitude, bounds.southwest.longitude,
+                bounds.northeast.latitude, bounds.northeast.longitude);
+
+        // select the entries in the bounding box from POI table
+        return db.query(TourContract.PoiEntry.TABLE_NAME,
+                projection, selection, null, null, null, null);
     }
 
     /**
-     * Extract POI data from a {@link JSONArray} of points of interest and add
-     * it to the POI table.
+     * Returns a {@link Cursor} for all route segments in order along the route
+     * with the given projection.
      * 
-     * @param data
+     * @param projection
+     * @return
      */
-    public void loadPois(JSONArray data) throws JSONException {
-
-        SQLiteDatabase db = this.getWritableDatabase();
-
-        // empty the POI table to remove all existing data
-        db.delete(TourContract.PoiEntry.TABLE_NAME, null, null);
-
-        // need to complete transaction first to clear data
-        db.close();
-
-        // begin the insert transaction
-        db = this.getWritableDatabase();
-        db.beginTransaction();
-
-        // Loop over each point of interest in array
-        for (int i = 0; i < data.length(); i++) {
-            JSONObject poi = data.getJSONObject(i);
-
-            // Extract POI properties
-            final String title = poi.getString("title");
-            final String type = poi.getString("type");
-            final String description = poi.getString("description");
-            final String pictureUrl = poi.getString("pictureUrl");
-            final String pictureAttr = poi.getString("pictureAttr");
-
-            // Location
-            JSONObject location = poi.getJSONObject("location");
-            final double lat = location.getDouble("lat");
-            final double lng = location.getDouble("lng");
-
-            // Create content values object for insert
-            ContentValues cv = new ContentValues();
-            cv.put(TourContract.PoiEntry.COLUMN_NAME_TITLE, title);
-            cv.put(TourContract.PoiEntry.COLUMN_NAME_TYPE, type);
-            cv.put(TourContract.PoiEntry.COLUMN_NAME_DESCRIPTION, description);
-            cv.put(TourContract.PoiEntry.COLUMN_NAME_PICTURE_URL, pictureUrl);
-            cv.put(TourContract.PoiEntry.COLUMN_NAME_LOCATION_LAT, lat);
-            cv.put(TourContract.PoiEntry.COLUMN_NAME_LOCATION_LNG, lng);
-            cv.put(TourContract.PoiEntry.COLUMN_NAME_PICTURE_ATTR, pictureAttr);
-
-            // Insert data
-            db.insert(TourContract.PoiEntry.TABLE_NAME, null, cv);
-        }
-
-        // All insert statement have been submitted, mark transaction as
-        // successful
-        db.setTransactionSuccessful();
-
-        if (db != null) {
-            db.endTransaction();
-        }
+    public Cursor getRoute(String[] projection) {
+        SQLiteDatabase db = this.getReadableDatabase();
 
+        // select all entries from route segment table
+        return db.query(TourContract.RouteEntry.TABLE_NAME,
+                projection, null, null, null, null, TourContract.RouteEntry._ID);
     }
 
     /**
-     * Extract Route data from a {@link JSONArray} of save it in the database.
+     * Returns a {@link Cursor} for all entries of the dictionary with the
+     * given projection.
      * 
-     * @param data
+     * @param projection
+     * @return
      */
-    public void loadRoute(JSONArray data) throws JSONException {
-
-        SQLiteDatabase db = this.getWritableDatabase();
-
-        // Empty the route table to remove all existing data
-        db.delete(TourContract.RouteEntry.TABLE_NAME, null, null);
-
-        // Need to complete transaction first to clear data
-        db.close();
-
-        // Begin the insert transaction
-        db = this.getWritableDatabase();
-        db.beginTransaction();
+    public Cursor getDictionary(String[] projection) {
+        SQLiteDatabase db = this.getReadableDatabase();
 
-        // Loop over each location in array
-        for (int i = 0; i < data.length(); i++) {
-            // extract data
-            JSONObject poi = data.getJSONObject(i);
-            final double lat = poi.getDouble("lat");
-            final double lng = poi.getDouble("lng");
+        return db.query(TourContract.DictionaryEntry.TABLE_NAME,
+                projection, null, null, null, null, null);
+    }
 
-            // Construct insert statement
-            ContentValues cv = new ContentValues();
-            cv.put(TourContract.RouteEntry.COLUMN_NAME_LAT, lat);
-            cv.put(TourContract.RouteEntry.COLUMN_NAME_LNG, lng);
+    /**
+     * Returns the hash of the tour.json file the stored data was imported
+     * from, or null if no import has completed yet.
+     * 
+     * @return
+     */
+    public String getSourceHash() {
+        SQLiteDatabase db = this.getReadableDatabase();
 
-            // Insert data
-            db.insert(TourContract.RouteEntry.TABLE_NAME, null, cv);
+        Cursor c = db.query(TourContract.MetadataEntry.TABLE_NAME, new String[] {
+                TourContract.MetadataEntry.COLUMN_NAME_VALUE
+        }, TourContract.MetadataEntry.COLUMN_NAME_KEY + "=?", new String[] {
+                TourContract.MetadataEntry.KEY_SOURCE_HASH
+        }, null, null, null);
+        try {
+            return c.moveToFirst() ? c.getString(0) : null;
+        } finally {
+            c.close();
         }
+    }
 
-        if (db != null) {
-            // All insert statement have been submitted, mark transaction as
-            // successful
-            db.setTransactionSuccessful();
-            db.endTransaction();
-        }
+    /**
+     * Reads the tour from the stream with a {@link TourJsonReader} and updates
+     * the POI and route tables with it. Only entries that have changed since
+     * the last import are written, see {@link TourImporter}.
+     * 
+     * @param in
+     * @param sourceHash Hash of the stream contents, stored once the import
+     *            has completed
+     * @return Statistics about the import
+     * @throws IOException
+     */
+    public ImportReport loadTour(InputStream in, String sourceHash) throws IOException {
+        return new TourImporter(this.getWritableDatabase()).importTour(in, sourceHash);
     }
 
 }
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.google.touroflondon.data;
+
+/**
+ * Splits picture attributions and URLs into a part that is shared by many
+ * POIs and is stored once in the {@link TourContract.DictionaryEntry} table,
+ * and a part that is stored with each POI. Concatenating both parts gives the
+ * original string.
+ * <ul>
+ * <li>Attributions are split before their license, which starts at the last
+ * "[", e.g. "By Diliff (Own work) " and "[CC-BY-SA-3.0 (...)], via Wikimedia
+ * Commons".</li>
+ * <li>URLs are split after their host, e.g.
+ * "https://lh3.googleusercontent.com/" and "-uakR66QcfGY/.../photo.jpg".</li>
+ * </ul>
+ * Strings without a shared part have a null shared part. This class only uses
+ * plain Java, so that it can also be used by the TourDbGenerator tool.
+ */
+public class TourDictionary {
+
+    private TourDictionary() {
+    }
+
+    /**
+     * Returns the license of the attribution, or null if it has none.
+     *
+     * @param attr
+     * @return
+     */
+    public static String getLicense(String attr) {
+        final int start = licenseStart(attr);
+        return start < attr.length() ? attr.substring(start) : null;
+    }
+
+    /**
+     * Returns the attribution without its license.
+     *
+     * @param attr
+     * @return
+     */
+    public static String stripLicense(String attr) {
+        return attr.substring(0, licenseStart(attr));
+    }
+
+    /**
+     * Returns the prefix of the URL up to and including the slash after the
+     * host, or null if it has none.
+     *
+     * @param url
+     * @return
+     */
+    public static String getUrlPrefix(String url) {
+        final int end = urlPrefixEnd(url);
+        return end > 0 ? url.substring(0, end) : null;
+    }
+
+    /**
+     * Returns the URL without its prefix.
+     *
+     * @param url
+     * @return
+     */
+    public static String stripUrlPrefix(String url) {
+        return url.substring(urlPrefixEnd(url));
+    }
+
+    /**
+     * Joins an attribution without its license and the license.
+     *
+     * @param attr The attribution without its license, or null
+     * @param license The license, or null
+     * @return The attribution, or null if attr is null
+     */
+    public static String joinLicense(String attr, String license) {
+        return attr == null || license == null ? attr : attr.concat(license);
+    }
+
+    /**
+     * Joins the prefix of a URL and the URL without its prefix.
+     *
+     * @param prefix The prefix, or null
+     * @param url The URL without its prefix, or null
+     * @return The URL, or null if url is null
+     */
+    public static String joinUrlPrefix(String prefix, String url) {
+        return url == null || prefix == null ? url : prefix.concat(url);
+    }
+
+    private static int licenseStart(String attr) {
+        final int start = attr.lastIndexOf('[');
+        return start >= 0 ? start : attr.length();
+    }
+
+    private static int urlPrefixEnd(String url) {
+        final int scheme = url.indexOf("://");
+        if (scheme < 0) {
+            return 0;
+        }
+        final int end = url.indexOf('/', scheme + 3);
+        return end >= 0 ? end + 1 : 0;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.google.touroflondon.data;
+
+/**
+ * 64 bit FNV-1a hashes of the tour entries, stored with each row to detect
+ * changes when the tour is imported again. This class has no dependencies on
+ * the Android framework so that the build-time database generator computes
+ * exactly the same hashes as the app.
+ */
+class TourHash {
+
+    // Offset basis and prime of the 64 bit FNV-1a hash
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    // prevent instantiation
+    private TourHash() {
+    }
+
+    /**
+     * Returns the hash of a point of interest.
+     */
+    static long poi(String title, String type, String description, String pictureUrl,
+            String pictureAttr, double lat, double lng) {
+        long hash = FNV_OFFSET;
+        hash = hash(hash, title);
+        hash = hash(hash, type);
+        hash = hash(hash, description);
+        hash = hash(hash, pictureUrl);
+        hash = hash(hash, pictureAttr);
+        hash = hash(hash, Double.doubleToLongBits(lat));
+        hash = hash(hash, Double.doubleToLongBits(lng));
+        return hash;
+    }
+
+    /**
+     * Returns the hash of the first count points of a route segment.
+     */
+    static long segment(double[] lat, double[] lng, int count) {
+        long hash = FNV_OFFSET;
+        for (int i = 0; i < count; i++) {
+            hash = hash(hash, Double.doubleToLongBits(lat[i]));
+            hash = hash(hash, Double.doubleToLongBits(lng[i]));
+        }
+        return hash;
+    }
+
+    /**
+     * Adds the characters of the string to a FNV-1a hash. The length is
+     * included so that characters can not shift between adjacent fields, a
+     * null string is hashed differently from an empty string.
+     */
+    private static long hash(long hash, String value) {
+        if (value == null) {
+            return hash(hash, -1L);
+        }
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+        }
+        return hash(hash, (long) value.length());
+    }
+
+    /**
+     * Adds the eight bytes of the value to a FNV-1a hash.
+     */
+    private static long hash(long hash, long value) {
+        for (int i = 0; i < 8; i++) {
+            hash = (hash ^ (value & 0xff)) * FNV_PRIME;
+            value >>>= 8;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.google.touroflondon.data;
+
+import com.example.google.touroflondon.Util;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteException;
+import android.os.AsyncTask;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * Imports the tour.json file into the database on a background thread. The
+ * SHA-1 hash of the file is compared to the hash stored with the last import
+ * and the file is only imported if it has changed, in which case only the
+ * changed entries are written. The hash is written to the
+ * {@link #SOURCE_HASH_ASSET} at build time, so that tour.json is only read
+ * once it has changed. Only a single import runs per process;
+ * activities register an {@link ImportListener} to receive progress updates
+ * and to be notified when the data is ready, including activities that were
+ * recreated while the import was running.
+ */
+public class TourImportTask extends AsyncTask<Void, Integer, ImportReport> {
+
+    private static final String TAG = "TourImportTask";
+
+    /**
+     * Name of the asset that holds the SHA-1 hash of tour.json as a hex
+     * string, written at build time by custom_rules.xml.
+     */
+    public static final String SOURCE_HASH_ASSET = "tour.json.sha1";
+
+    /**
+     * Callbacks for the progress of the import. All methods are called on the
+     * UI thread.
+     */
+    public interface ImportListener {
+        /**
+         * Called periodically with the fraction of the file that has been
+         * imported.
+         *
+         * @param percent Progress between 0 and 100
+         */
+        public void onImportProgress(int percent);
+
+        /**
+         * Called once the import has finished. Data loaders should be
+         * restarted if {@link ImportReport#hasChanges()} is true. If the
+         * import has failed, the data from before the import is kept.
+         *
+         * @param report
+         */
+        public void onImportFinished(ImportReport report);
+    }
+
+    // The import that is currently running, null if there is none
+    private static TourImportTask sRunningTask = null;
+
+    // True once the data has been verified or imported in this process
+    private static boolean sFinished = false;
+
+    // Listeners notified about the running import
+    private static final ArrayList<ImportListener> sListeners = new ArrayList<ImportListener>();
+
+    private final Context mContext;
+
+    private TourImportTask(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    /**
+     * Starts the import unless it is already running or has already finished in
+     * this process. Must be called from the UI thread.
+     *
+     * @param context
+     */
+    public static void start(Context context) {
+        if (sRunningTask == null && !sFinished) {
+            sRunningTask = new TourImportTask(context);
+            sRunningTask.execute();
+        }
+    }
+
+    /**
+     * Returns true while the import is running.
+     */
+    public static boolean isRunning() {
+        return sRunningTask != null;
+    }
+
+    public static void addListener(ImportListener listener) {
+        sListeners.add(listener);
+    }
+
+    public static void removeListener(ImportListener listener) {
+        sListeners.remove(listener);
+    }
+
+    @Override
+    protected ImportReport doInBackground(Void... params) {
+        ImportReport report = importTour();
+        if (ImportBenchmark.ENABLED) {
+            ImportBenchmark.run(mContext);
+        }
+        if (TourPackBenchmark.ENABLED) {
+            TourPackBenchmark.run(mContext);
+        }
+        return report;
+    }
+
+    /**
+     * Imports tour.json unless the database already holds its data. Returns a
+     * failed report if the file can not be read or parsed, or the database
+     * can not be written. The import runs in a single transaction, so the
+     * data from before the import is kept.
+     */
+    private ImportReport importTour() {
+        final long start = SystemClock.elapsedRealtime();
+        try {
+            return importIfChanged(start);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not read tour.json file.", e);
+            return ImportReport.failed(e, SystemClock.elapsedRealtime() - start);
+        } catch (IllegalStateException e) {
+            // Thrown by JsonReader for an unexpected structure
+            Log.e(TAG, "Malformed tour.json file.", e);
+            return ImportReport.failed(e, SystemClock.elapsedRealtime() - start);
+        } catch (NumberFormatException e) {
+            // Thrown by JsonReader for a malformed number
+            Log.e(TAG, "Malformed tour.json file.", e);
+            return ImportReport.failed(e, SystemClock.elapsedRealtime() - start);
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Could not write the tour database.", e);
+            return ImportReport.failed(e, SystemClock.elapsedRealtime() - start);
+        }
+    }
+
+    private ImportReport importIfChanged(long start) throws IOException {
+        // Use the prebuilt database on first start, if it has been packaged
+        if (TourDbHelper.installPrebuiltDatabase(mContext)) {
+            Log.d(TAG, "Installed prebuilt database.");
+            TourRepository repository = TourRepository.getInstance(mContext);
+            if (repository.installPrebuiltPack()) {
+                Log.d(TAG, "Installed prebuilt pack.");
+            }
+            repository.invalidate();
+        }
+        TourDbHelper dbHelper = new TourDbHelper(mContext);
+
+        // Skip the import if the data has already been imported from the same
+        // version of the file
+        String sourceHash = readSourceHash();
+        if (sourceHash.equals(dbHelper.getSourceHash())) {
+            Util.setDataLoaded(mContext, true);
+            return ImportReport.unchanged(SystemClock.elapsedRealtime() - start);
+        }
+
+        ProgressInputStream in = new ProgressInputStream(Util.openTour(mContext));
+        try {
+            ImportReport report = dbHelper.loadTour(in, sourceHash);
+            if (report.hasChanges()) {
+                // Drop the data read before the import
+                TourRepository.getInstance(mContext).invalidate();
+            }
+
+            // Mark data as loaded
+            Util.setDataLoaded(mContext, true);
+            return report;
+
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // Ignore, the data has already been read
+            }
+        }
+    }
+
+    /**
+     * Returns the SHA-1 hash of the tour.json file as a hex string, read from
+     * the {@link #SOURCE_HASH_ASSET}. The file itself is only hashed if the
+     * asset has not been packaged.
+     */
+    private String readSourceHash() throws IOException {
+        InputStream in;
+        try {
+            in = mContext.getAssets().open(SOURCE_HASH_ASSET);
+        } catch (IOException e) {
+            Log.d(TAG, "No source hash asset, hashing tour.json.");
+            return hashSource();
+        }
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, "US-ASCII"));
+            String hash = reader.readLine();
+            if (hash == null) {
+                throw new IOException("Empty source hash asset.");
+            }
+            return hash.trim().toLowerCase(Locale.US);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns the SHA-1 hash of the tour.json file as a hex string.
+     */
+    private String hashSource() throws IOException {
+        InputStream in = Util.openTour(mContext);
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] buffer = new byte[8192];
+            int length;
+            while ((length = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, length);
+            }
+
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest.digest()) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available.", e);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // Ignore, the data has already been read
+            }
+        }
+    }
+
+    @Override
+    protected void onProgressUpdate(Integer... values) {
+        for (ImportListener listener : new ArrayList<ImportListener>(sListeners)) {
+            listener.onImportProgress(values[0]);
+        }
+    }
+
+    @Override
+    protected void onPostExecute(ImportReport report) {
+        Log.d(TAG, report.toString());
+
+        sRunningTask = null;
+        // A failed import is retried by the next call to start()
+        sFinished = report.isSuccessful();
+        for (ImportListener listener : new ArrayList<ImportListener>(sListeners)) {
+            listener.onImportFinished(report);
+        }
+    }
+
+    /**
+     * An InputStream that publishes the fraction of bytes read as the
+     * progress of this task.
+     */
+    private class ProgressInputStream extends FilterInputStream {
+
+        private final int mLength;
+        private int mRead = 0;
+        private int mPercent = 0;
+
+        ProgressInputStream(InputStream in) {
+            super(in);
+
+            // Raw resources report their remaining (uncompressed) length
+            int length = 0;
+            try {
+                length = in.available();
+            } catch (IOException e) {
+                // Progress can not be reported
+            }
+            mLength = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                onRead(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                onRead(read);
+            }
+            return read;
+        }
+
+        private void onRead(int count) {
+            mRead += count;
+            if (mLength > 0) {
+                int percent = (int) (100L * mRead / mLength);
+                if (percent != mPercent) {
+                    mPercent = percent;
+                    publishProgress(percent);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,404 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.google.touroflondon.data;
+
+import com.example.google.touroflondon.data.TourContract.DictionaryEntry;
+import com.example.google.touroflondon.data.TourContract.MetadataEntry;
+import com.example.google.touroflondon.data.TourContract.PoiEntry;
+import com.example.google.touroflondon.data.TourContract.RouteEntry;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Incrementally imports the entries read by a {@link TourJsonReader} into the
+ * database. Only the difference to the data that is already stored is
+ * written:
+ * <ul>
+ * <li>Every POI row stores the key and a {@link TourHash} of its source entry.
+ * Keys are unique within the source, see {@link PoiKeys}. Entries with a
+ * known key and hash are left untouched, entries with a known key are
+ * updated in place so that their _ID does not change, new entries are
+ * inserted and rows whose key no longer appears in the source are
+ * deleted.</li>
+ * <li>The route is split into segments of
+ * {@link RouteEntry#POINTS_PER_SEGMENT} points, each stored as a single row
+ * encoded by {@link RouteCodec}. Only segments whose hash has changed are
+ * rewritten, surplus segments at the end are deleted.</li>
+ * <li>Picture licenses and URL prefixes are stored once in the dictionary
+ * and referenced by the POI rows, see {@link TourDictionary}. Entries that
+ * are no longer referenced are deleted.</li>
+ * </ul>
+ * All rows are written with pre-compiled statements in a single transaction,
+ * so that an interrupted import leaves the previous data untouched and
+ * readers never see a mix of old and new rows.
+ */
+class TourImporter implements TourJsonReader.Handler {
+
+    private static final String COMMA_SEP = ",";
+
+    private static final String SQL_INSERT_POI =
+            "INSERT INTO " + PoiEntry.TABLE_NAME + " (" +
+                    PoiEntry.COLUMN_NAME_KEY + COMMA_SEP +
+                    PoiEntry.COLUMN_NAME_TITLE + COMMA_SEP +
+                    PoiEntry.COLUMN_NAME_TYPE + COMMA_SEP +
+                    PoiEntry.COLUMN_NAME_LOCATION_LAT + COMMA_SEP +
+                    PoiEntry.COLUMN_NAME_LOCATION_LNG + COMMA_SEP +
+                    PoiEntry.COLUMN_NAME_DESCRIPTION + COMMA_SEP +
+                    PoiEntry.COLUMN_NAME_PICTURE_URL + COMMA_SEP +
+                    PoiEntry.COLUMN_NAME_PICTURE_URL_PREFIX + COMMA_SEP +
+                    PoiEntry.COLUMN_NAME_PICTURE_ATTR + COMMA_SEP +
+                    PoiEntry.COLUMN_NAME_PICTURE_LICENSE + COMMA_SEP +
+                    PoiEntry.COLUMN_NAME_HASH + COMMA_SEP +
+                    PoiEntry.COLUMN_NAME_CELL +
+                    ") VALUES (?,?,?,?,?,?,?,?,?,?,?,?)";
+
+    // Binds the columns in the same order as SQL_INSERT_POI, followed by the _ID
+    private static final String SQL_UPDATE_POI =
+            "UPDATE " + PoiEntry.TABLE_NAME + " SET " +
+                    PoiEntry.COLUMN_NAME_KEY + "=?," +
+                    PoiEntry.COLUMN_NAME_TITLE + "=?," +
+                    PoiEntry.COLUMN_NAME_TYPE + "=?," +
+                    PoiEntry.COLUMN_NAME_LOCATION_LAT + "=?," +
+                    PoiEntry.COLUMN_NAME_LOCATION_LNG + "=?," +
+                    PoiEntry.COLUMN_NAME_DESCRIPTION + "=?," +
+                    PoiEntry.COLUMN_NAME_PICTURE_URL + "=?," +
+                    PoiEntry.COLUMN_NAME_PICTURE_URL_PREFIX + "=?," +
+                    PoiEntry.COLUMN_NAME_PICTURE_ATTR + "=?," +
+                    PoiEntry.COLUMN_NAME_PICTURE_LICENSE + "=?," +
+                    PoiEntry.COLUMN_NAME_HASH + "=?," +
+                    PoiEntry.COLUMN_NAME_CELL + "=?" +
+                    " WHERE " + PoiEntry._ID + "=?";
+
+    private static final String SQL_DELETE_POI =
+            "DELETE FROM " + PoiEntry.TABLE_NAME + " WHERE " + PoiEntry._ID + "=?";
+
+    private static final String SQL_REPLACE_ROUTE =
+            "INSERT OR REPLACE INTO " + RouteEntry.TABLE_NAME + " (" +
+                    RouteEntry._ID + COMMA_SEP +
+                    RouteEntry.COLUMN_NAME_COUNT + COMMA_SEP +
+                    RouteEntry.COLUMN_NAME_POINTS + COMMA_SEP +
+                    RouteEntry.COLUMN_NAME_HASH +
+                    ") VALUES (?,?,?,?)";
+
+    // Deletes all route segments from the given index onwards
+    private static final String SQL_DELETE_ROUTE_FROM =
+            "DELETE FROM " + RouteEntry.TABLE_NAME + " WHERE " + RouteEntry._ID + ">=?";
+
+    private static final String SQL_INSERT_DICTIONARY =
+            "INSERT INTO " + DictionaryEntry.TABLE_NAME + " (" +
+                    DictionaryEntry.COLUMN_NAME_VALUE +
+                    ") VALUES (?)";
+
+    // Deletes all dictionary entries that are not referenced by any POI
+    private static final String SQL_DELETE_UNUSED_DICTIONARY =
+            "DELETE FROM " + DictionaryEntry.TABLE_NAME + " WHERE " +
+                    DictionaryEntry._ID + " NOT IN (SELECT " +
+                    PoiEntry.COLUMN_NAME_PICTURE_URL_PREFIX + " FROM " + PoiEntry.TABLE_NAME +
+                    " WHERE " + PoiEntry.COLUMN_NAME_PICTURE_URL_PREFIX + " IS NOT NULL) AND " +
+                    DictionaryEntry._ID + " NOT IN (SELECT " +
+                    PoiEntry.COLUMN_NAME_PICTURE_LICENSE + " FROM " + PoiEntry.TABLE_NAME +
+                    " WHERE " + PoiEntry.COLUMN_NAME_PICTURE_LICENSE + " IS NOT NULL)";
+
+    private static final String SQL_REPLACE_METADATA =
+            "INSERT OR REPLACE INTO " + MetadataEntry.TABLE_NAME + " (" +
+                    MetadataEntry.COLUMN_NAME_KEY + COMMA_SEP +
+                    MetadataEntry.COLUMN_NAME_VALUE +
+                    ") VALUES (?,?)";
+
+    private final SQLiteDatabase mDb;
+
+    private SQLiteStatement mInsertPoi;
+    private SQLiteStatement mUpdatePoi;
+    private SQLiteStatement mReplaceRoute;
+    private SQLiteStatement mInsertDictionary;
+
+    // IDs of the stored dictionary entries, by value
+    private final HashMap<String, Long> mDictionary = new HashMap<String, Long>();
+
+    // Stored POIs that have not been seen in the source yet, by key
+    private final HashMap<String, StoredPoi> mStoredPois = new HashMap<String, StoredPoi>();
+
+    // Ids of stored POIs that duplicate another stored POI
+    private final ArrayList<Long> mDuplicatePois = new ArrayList<Long>();
+
+    // Hashes of the stored route segments, indexed by segment
+    private long[] mStoredSegments = new long[0];
+
+    // Route points of the segment that is currently being read
+    private final double[] mSegmentLat = new double[RouteEntry.POINTS_PER_SEGMENT];
+    private final double[] mSegmentLng = new double[RouteEntry.POINTS_PER_SEGMENT];
+    private int mSegmentSize = 0;
+    private int mSegmentIndex = 0;
+
+    private int mPoiInserted = 0;
+    private int mPoiUpdated = 0;
+    private int mPoiDeleted = 0;
+    private int mRouteRows = 0;
+
+    TourImporter(SQLiteDatabase db) {
+        mDb = db;
+    }
+
+    /**
+     * Reads the tour from the stream and writes all changes to the database,
+     * together with the source hash, in one transaction.
+     *
+     * @param in
+     * @param sourceHash
+     * @return
+     * @throws IOException
+     */
+    ImportReport importTour(InputStream in, String sourceHash) throws IOException {
+        final long start = SystemClock.elapsedRealtime();
+
+        readStoredHashes();
+
+        mInsertPoi = mDb.compileStatement(SQL_INSERT_POI);
+        mUpdatePoi = mDb.compileStatement(SQL_UPDATE_POI);
+        mReplaceRoute = mDb.compileStatement(SQL_REPLACE_ROUTE);
+        mInsertDictionary = mDb.compileStatement(SQL_INSERT_DICTIONARY);
+
+        mDb.beginTransaction();
+        try {
+            new TourJsonReader(this).read(in);
+
+            // Write the last, partial segment and remove the rest of the route
+            if (mSegmentSize > 0) {
+                writeSegment();
+            }
+            mRouteRows += executeDelete(SQL_DELETE_ROUTE_FROM, mSegmentIndex);
+
+            // Remove all POIs that are no longer part of the source
+            for (StoredPoi poi : mStoredPois.values()) {
+                mDuplicatePois.add(poi.mId);
+            }
+            deletePois(mDuplicatePois);
+            executeDelete(SQL_DELETE_UNUSED_DICTIONARY);
+
+            SQLiteStatement metadata = mDb.compileStatement(SQL_REPLACE_METADATA);
+            metadata.bindString(1, MetadataEntry.KEY_SOURCE_HASH);
+            metadata.bindString(2, sourceHash);
+            metadata.executeInsert();
+            metadata.close();
+
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+
+            mInsertPoi.close();
+            mUpdatePoi.close();
+            mReplaceRoute.close();
+            mInsertDictionary.close();
+        }
+
+        return new ImportReport(mPoiInserted, mPoiUpdated, mPoiDeleted, mRouteRows,
+                SystemClock.elapsedRealtime() - start);
+    }
+
+    /**
+     * Reads the keys and hashes of all stored POIs and route segments and the
+     * dictionary.
+     */
+    private void readStoredHashes() {
+        Cursor c = mDb.query(PoiEntry.TABLE_NAME, new String[] {
+                PoiEntry._ID, PoiEntry.COLUMN_NAME_KEY, PoiEntry.COLUMN_NAME_HASH
+        }, null, null, null, null, null);
+        while (c.moveToNext()) {
+            StoredPoi poi = new StoredPoi(c.getLong(0), c.getLong(2));
+            // Rows without a key can not be matched and are replaced
+            StoredPoi previous = c.isNull(1) ? poi : mStoredPois.put(c.getString(1), poi);
+            if (previous != null) {
+                mDuplicatePois.add(previous.mId);
+            }
+        }
+        c.close();
+
+        c = mDb.query(RouteEntry.TABLE_NAME, new String[] {
+                RouteEntry._ID, RouteEntry.COLUMN_NAME_HASH
+        }, null, null, null, null, RouteEntry._ID);
+        mStoredSegments = new long[c.getCount()];
+        while (c.moveToNext()) {
+            // Segments are stored consecutively, anything else is rewritten
+            int index = c.getInt(0);
+            if (index < mStoredSegments.length) {
+                mStoredSegments[index] = c.getLong(1);
+            }
+        }
+        c.close();
+
+        c = mDb.query(DictionaryEntry.TABLE_NAME, new String[] {
+                DictionaryEntry._ID, DictionaryEntry.COLUMN_NAME_VALUE
+        }, null, null, null, null, null);
+        while (c.moveToNext()) {
+            mDictionary.put(c.getString(1), c.getLong(0));
+        }
+        c.close();
+    }
+
+    @Override
+    public void onPoi(String key, String title, String type, String description,
+            String pictureUrl, String pictureAttr, double lat, double lng) {
+        final long hash = TourHash.poi(title, type, description, pictureUrl, pictureAttr, lat,
+                lng);
+
+        StoredPoi stored = key != null ? mStoredPois.remove(key) : null;
+        if (stored != null && stored.mHash == hash) {
+            // Unchanged entry, nothing to write
+            return;
+        }
+
+        SQLiteStatement statement = stored != null ? mUpdatePoi : mInsertPoi;
+        bindString(statement, 1, key);
+        bindString(statement, 2, title);
+        bindString(statement, 3, type);
+        statement.bindDouble(4, lat);
+        statement.bindDouble(5, lng);
+        bindString(statement, 6, description);
+        if (pictureUrl != null) {
+            statement.bindString(7, TourDictionary.stripUrlPrefix(pictureUrl));
+            bindId(statement, 8, TourDictionary.getUrlPrefix(pictureUrl));
+        } else {
+            statement.bindNull(7);
+            statement.bindNull(8);
+        }
+        if (pictureAttr != null) {
+            statement.bindString(9, TourDictionary.stripLicense(pictureAttr));
+            bindId(statement, 10, TourDictionary.getLicense(pictureAttr));
+        } else {
+            statement.bindNull(9);
+            statement.bindNull(10);
+        }
+        statement.bindLong(11, hash);
+        statement.bindLong(12, SpatialGrid.cell(lat, lng));
+
+        if (stored != null) {
+            // Keep the _ID, so that the POI is still known under it
+            statement.bindLong(13, stored.mId);
+            statement.executeUpdateDelete();
+            mPoiUpdated++;
+        } else {
+            statement.executeInsert();
+            mPoiInserted++;
+        }
+    }
+
+    @Override
+    public void onRoutePoint(double lat, double lng) {
+        mSegmentLat[mSegmentSize] = lat;
+        mSegmentLng[mSegmentSize] = lng;
+        mSegmentSize++;
+
+        if (mSegmentSize == RouteEntry.POINTS_PER_SEGMENT) {
+            writeSegment();
+        }
+    }
+
+    /**
+     * Encodes and writes the current segment if its hash differs from the
+     * stored segment and starts the next segment.
+     */
+    private void writeSegment() {
+        final long hash = TourHash.segment(mSegmentLat, mSegmentLng, mSegmentSize);
+
+        if (mSegmentIndex >= mStoredSegments.length
+                || mStoredSegments[mSegmentIndex] != hash) {
+            mReplaceRoute.bindLong(1, mSegmentIndex);
+            mReplaceRoute.bindLong(2, mSegmentSize);
+            mReplaceRoute.bindBlob(3, RouteCodec.encode(mSegmentLat, mSegmentLng, mSegmentSize));
+            mReplaceRoute.bindLong(4, hash);
+            mReplaceRoute.executeInsert();
+
+            mRouteRows++;
+        }
+
+        mSegmentIndex++;
+        mSegmentSize = 0;
+    }
+
+    private void deletePois(Iterable<Long> ids) {
+        SQLiteStatement delete = mDb.compileStatement(SQL_DELETE_POI);
+        for (Long id : ids) {
+            delete.bindLong(1, id);
+            delete.executeUpdateDelete();
+
+            mPoiDeleted++;
+        }
+        delete.close();
+    }
+
+    /**
+     * Binds the dictionary ID of the value, inserting it into the dictionary
+     * if needed, or null if the value is null.
+     */
+    private void bindId(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+            return;
+        }
+        Long id = mDictionary.get(value);
+        if (id == null) {
+            mInsertDictionary.bindString(1, value);
+            id = mInsertDictionary.executeInsert();
+            mDictionary.put(value, id);
+        }
+        statement.bindLong(index, id);
+    }
+
+    private int executeDelete(String sql) {
+        SQLiteStatement delete = mDb.compileStatement(sql);
+        int rows = delete.executeUpdateDelete();
+        delete.close();
+        return rows;
+    }
+
+    private int executeDelete(String sql, long arg) {
+        SQLiteStatement delete = mDb.compileStatement(sql);
+        delete.bindLong(1, arg);
+        int rows = delete.executeUpdateDelete();
+        delete.close();
+        return rows;
+    }
+
+    /**
+     * Row ID and hash of a stored POI.
+     */
+    private static class StoredPoi {
+        final long mId;
+        final long mHash;
+
+        StoredPoi(long id, long hash) {
+            mId = id;
+            mHash = hash;
+        }
+    }
+
+    private static void bindString(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+}
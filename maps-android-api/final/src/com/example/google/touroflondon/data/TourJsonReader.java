@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.google.touroflondon.data;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * A streaming reader for the tour.json file. The file is read token by token
+ * with a {@link JsonReader} and every point of interest and route point is
+ * handed to a {@link Handler} as soon as it has been read. Only a single entry
+ * is held in memory at any time, the document itself is never materialised.
+ */
+public class TourJsonReader {
+
+    /**
+     * Receives the entries of the tour file in the order they are read.
+     */
+    public interface Handler {
+        /**
+         * Called with a point of interest. The key is the id of the entry,
+         * or its title if it has no id, and is unique within the file, see
+         * {@link PoiKeys}.
+         */
+        public void onPoi(String key, String title, String type, String description,
+                String pictureUrl, String pictureAttr, double lat, double lng);
+
+        public void onRoutePoint(double lat, double lng);
+    }
+
+    private final Handler mHandler;
+    private final PoiKeys mKeys = new PoiKeys();
+
+    public TourJsonReader(Handler handler) {
+        mHandler = handler;
+    }
+
+    /**
+     * Reads the tour from the stream and passes each entry to the handler. The
+     * stream is closed once it has been read.
+     *
+     * @param in
+     * @throws IOException
+     */
+    public void read(InputStream in) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("pointsOfInterest")) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        readPoi(reader);
+                    }
+                    reader.endArray();
+                } else if (name.equals("route")) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        readRoutePoint(reader);
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void readPoi(JsonReader reader) throws IOException {
+        String id = null;
+        String title = null;
+        String type = null;
+        String description = null;
+        String pictureUrl = null;
+        String pictureAttr = null;
+        double lat = 0;
+        double lng = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("id")) {
+                id = nextString(reader);
+            } else if (name.equals("title")) {
+                title = nextString(reader);
+            } else if (name.equals("type")) {
+                type = nextString(reader);
+            } else if (name.equals("description")) {
+                description = nextString(reader);
+            } else if (name.equals("pictureUrl")) {
+                pictureUrl = nextString(reader);
+            } else if (name.equals("pictureAttr")) {
+                pictureAttr = nextString(reader);
+            } else if (name.equals("location")) {
+                // Location object with lat and lng properties
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String field = reader.nextName();
+                    if (field.equals("lat")) {
+                        lat = reader.nextDouble();
+                    } else if (field.equals("lng")) {
+                        lng = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        mHandler.onPoi(mKeys.next(id, title), title, type, description, pictureUrl,
+                pictureAttr, lat, lng);
+    }
+
+    private void readRoutePoint(JsonReader reader) throws IOException {
+        double lat = 0;
+        double lng = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("lat")) {
+                lat = reader.nextDouble();
+            } else if (name.equals("lng")) {
+                lng = reader.nextDouble();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        mHandler.onRoutePoint(lat, lng);
+    }
+
+    /**
+     * Returns the next string value, or null if the value is a JSON null.
+     */
+    private static String nextString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+}
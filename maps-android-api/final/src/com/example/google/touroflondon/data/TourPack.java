@@ -0,0 +1,325 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.google.touroflondon.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * A read-only binary copy of the tour data that is memory mapped, so that it
+ * can be read without SQLite and without creating an object per row. All
+ * values are read straight from the mapping as primitives; only strings are
+ * decoded, when they are requested.
+ * <p>
+ * A pack consists of a header followed by the sections below, each aligned
+ * to its element size. POIs are sorted by ID and referenced by their index in
+ * the pack.
+ * <ul>
+ * <li>long[poiCount]: row IDs of the POIs, in ascending order</li>
+ * <li>int[poiCount] x2: latitudes and longitudes in microdegrees</li>
+ * <li>byte[poiCount]: type codes</li>
+ * <li>int[poiCount * 4]: title, description, picture attribution and picture
+ * URL as offsets into the string table</li>
+ * <li>int[typeCount]: type names as offsets into the string table</li>
+ * <li>int[typeCount + 1] and int[poiCount]: the POI indexes grouped by type,
+ * and the start of each type in them</li>
+ * <li>int[routeCount] x2: latitudes and longitudes of the route points in
+ * microdegrees</li>
+ * <li>int[poiCount] x2: the POI indexes in ascending order of their
+ * {@link SpatialGrid} cell, and the cell of each of them</li>
+ * <li>The string table: each string is stored once as its length followed by
+ * its UTF-8 bytes</li>
+ * </ul>
+ * Packs are written by {@link TourPackWriter} and record the hash of the
+ * tour.json file they were written from, so that stale packs can be detected.
+ */
+public class TourPack {
+
+    /** Name of the pack file in the cache directory. */
+    public static final String FILE_NAME = "tour.pack";
+
+    static final int MAGIC = 0x54504b31; // "TPK1"
+    static final int VERSION = 2;
+
+    static final Charset CHARSET = Charset.forName("UTF-8");
+
+    /** Type codes are stored in a byte. */
+    static final int MAX_TYPES = Byte.MAX_VALUE;
+
+    // The strings of each POI, in order
+    static final int STRINGS_PER_POI = 4;
+    static final int STRING_TITLE = 0;
+    static final int STRING_DESCRIPTION = 1;
+    static final int STRING_PICTURE_ATTR = 2;
+    static final int STRING_PICTURE_URL = 3;
+
+    /** String offset of null strings. */
+    static final int NO_STRING = -1;
+
+    private static final int HEADER_SIZE = 7 * 4;
+
+    /**
+     * Offsets of the sections of a pack, computed from the counts in its
+     * header.
+     */
+    static class Layout {
+        final int mIds;
+        final int mLat;
+        final int mLng;
+        final int mTypes;
+        final int mStrings;
+        final int mTypeNames;
+        final int mTypeStarts;
+        final int mTypeIndex;
+        final int mRouteLat;
+        final int mRouteLng;
+        final int mCellOrder;
+        final int mCells;
+        final int mStringTable;
+        final int mSize;
+
+        Layout(int poiCount, int typeCount, int routeCount, int stringTableSize) {
+            mIds = align(HEADER_SIZE, 8);
+            mLat = mIds + 8 * poiCount;
+            mLng = mLat + 4 * poiCount;
+            mTypes = mLng + 4 * poiCount;
+            mStrings = align(mTypes + poiCount, 4);
+            mTypeNames = mStrings + 4 * STRINGS_PER_POI * poiCount;
+            mTypeStarts = mTypeNames + 4 * typeCount;
+            mTypeIndex = mTypeStarts + 4 * (typeCount + 1);
+            mRouteLat = mTypeIndex + 4 * poiCount;
+            mRouteLng = mRouteLat + 4 * routeCount;
+            mCellOrder = mRouteLng + 4 * routeCount;
+            mCells = mCellOrder + 4 * poiCount;
+            mStringTable = mCells + 4 * poiCount;
+            mSize = mStringTable + stringTableSize;
+        }
+
+        private static int align(int offset, int size) {
+            return (offset + size - 1) / size * size;
+        }
+    }
+
+    private final ByteBuffer mBuffer;
+    private final Layout mLayout;
+    private final int mPoiCount;
+    private final int mRouteCount;
+    private final String mSourceHash;
+    private final String[] mTypeNames;
+
+    private TourPack(ByteBuffer buffer) throws IOException {
+        mBuffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a tour pack");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported tour pack version " + buffer.getInt(4));
+        }
+        mPoiCount = buffer.getInt(8);
+        final int typeCount = buffer.getInt(12);
+        mRouteCount = buffer.getInt(16);
+        mLayout = new Layout(mPoiCount, typeCount, mRouteCount, buffer.getInt(20));
+        if (buffer.capacity() != mLayout.mSize) {
+            throw new IOException("Truncated tour pack");
+        }
+
+        mSourceHash = getString(buffer.getInt(24));
+        mTypeNames = new String[typeCount];
+        for (int i = 0; i < typeCount; i++) {
+            mTypeNames[i] = getString(buffer.getInt(mLayout.mTypeNames + 4 * i));
+        }
+    }
+
+    /**
+     * Maps the pack file into memory.
+     *
+     * @param file
+     * @return
+     * @throws IOException If the file can not be read or is not a valid pack
+     */
+    public static TourPack open(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            // The mapping stays valid after the file has been closed
+            FileChannel channel = in.getChannel();
+            return new TourPack(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns the hash of the tour.json file the pack was written from.
+     */
+    public String getSourceHash() {
+        return mSourceHash;
+    }
+
+    public int getPoiCount() {
+        return mPoiCount;
+    }
+
+    public long getPoiId(int poi) {
+        return mBuffer.getLong(mLayout.mIds + 8 * poi);
+    }
+
+    public int getLatitudeE6(int poi) {
+        return mBuffer.getInt(mLayout.mLat + 4 * poi);
+    }
+
+    public int getLongitudeE6(int poi) {
+        return mBuffer.getInt(mLayout.mLng + 4 * poi);
+    }
+
+    /**
+     * Returns the type code of the POI, see {@link #getTypeName(int)}.
+     *
+     * @param poi
+     * @return
+     */
+    public int getTypeCode(int poi) {
+        return mBuffer.get(mLayout.mTypes + poi);
+    }
+
+    public String getTitle(int poi) {
+        return getPoiString(poi, STRING_TITLE);
+    }
+
+    public String getDescription(int poi) {
+        return getPoiString(poi, STRING_DESCRIPTION);
+    }
+
+    public String getPictureAttr(int poi) {
+        return getPoiString(poi, STRING_PICTURE_ATTR);
+    }
+
+    public String getPictureUrl(int poi) {
+        return getPoiString(poi, STRING_PICTURE_URL);
+    }
+
+    /**
+     * Returns the number of POI types in the pack. Type codes range from 0 to
+     * one less than this count.
+     */
+    public int getTypeCount() {
+        return mTypeNames.length;
+    }
+
+    public String getTypeName(int type) {
+        return mTypeNames[type];
+    }
+
+    /**
+     * Returns the number of POIs of the type.
+     *
+     * @param type
+     * @return
+     */
+    public int getPoiCountOfType(int type) {
+        return mBuffer.getInt(mLayout.mTypeStarts + 4 * (type + 1))
+                - mBuffer.getInt(mLayout.mTypeStarts + 4 * type);
+    }
+
+    /**
+     * Returns the index of the n-th POI of the type, in the order of the
+     * POIs.
+     *
+     * @param type
+     * @param n
+     * @return
+     */
+    public int getPoiOfType(int type, int n) {
+        final int start = mBuffer.getInt(mLayout.mTypeStarts + 4 * type);
+        return mBuffer.getInt(mLayout.mTypeIndex + 4 * (start + n));
+    }
+
+    public int getRoutePointCount() {
+        return mRouteCount;
+    }
+
+    public int getRouteLatitudeE6(int point) {
+        return mBuffer.getInt(mLayout.mRouteLat + 4 * point);
+    }
+
+    public int getRouteLongitudeE6(int point) {
+        return mBuffer.getInt(mLayout.mRouteLng + 4 * point);
+    }
+
+    /**
+     * Returns the index of the n-th POI in ascending order of
+     * {@link SpatialGrid} cell.
+     *
+     * @param n
+     * @return
+     */
+    public int getPoiByCell(int n) {
+        return mBuffer.getInt(mLayout.mCellOrder + 4 * n);
+    }
+
+    /**
+     * Returns the {@link SpatialGrid} cell of the n-th POI in ascending order
+     * of cell.
+     *
+     * @param n
+     * @return
+     */
+    public long getSortedCell(int n) {
+        return mBuffer.getInt(mLayout.mCells + 4 * n);
+    }
+
+    /**
+     * Converts degrees to microdegrees.
+     *
+     * @param degrees
+     * @return
+     */
+    public static int toE6(double degrees) {
+        return (int) Math.round(degrees * 1E6);
+    }
+
+    /**
+     * Converts microdegrees to degrees.
+     *
+     * @param e6
+     * @return
+     */
+    public static double fromE6(int e6) {
+        return e6 / 1E6;
+    }
+
+    private String getPoiString(int poi, int string) {
+        return getString(mBuffer.getInt(mLayout.mStrings + 4 * (STRINGS_PER_POI * poi + string)));
+    }
+
+    private String getString(int ref) {
+        if (ref == NO_STRING) {
+            return null;
+        }
+        final int offset = mLayout.mStringTable + ref;
+        byte[] bytes = new byte[mBuffer.getInt(offset)];
+        // Read through a duplicate, the position of the shared buffer is
+        // never changed
+        ByteBuffer buffer = mBuffer.duplicate();
+        buffer.position(offset + 4);
+        buffer.get(bytes);
+        return new String(bytes, CHARSET);
+    }
+}
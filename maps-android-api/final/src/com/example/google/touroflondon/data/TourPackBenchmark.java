@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.google.touroflondon.data;
+
+import com.example.google.touroflondon.PointOfInterest;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import android.content.Context;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Compares the time and the number of allocations of a cold start of the map
+ * with the tour data read from SQLite and from a {@link TourPack}. Each run
+ * loads a {@link TourSnapshot} and then does the work of the map loaders: it
+ * gets the bounding box of the POIs, creates the route and looks up the POIs
+ * in a viewport around the centre of the tour. The results are logged.
+ * <ul>
+ * <li>database: the snapshot is read through cursors, as on a cold start
+ * without a pack</li>
+ * <li>pack: the snapshot is served from a freshly mapped pack, as on a cold
+ * start with a pack</li>
+ * </ul>
+ * The heap used by the {@link PoiStore} of a snapshot is logged together
+ * with the heap used by a {@link PointOfInterest} view of every POI, and the
+ * estimated heap of full objects with all values copied, as before the store
+ * was introduced.
+ */
+public class TourPackBenchmark {
+
+    private static final String TAG = "TourPackBenchmark";
+
+    /** Set to true to run the benchmark after each import. */
+    public static final boolean ENABLED = false;
+
+    private static final int ITERATIONS = 10;
+
+    private static final String PACK_FILE_NAME = "benchmark.pack";
+
+    // Size of the viewport around the centre of the tour, in degrees
+    private static final double VIEWPORT_SIZE = 0.02;
+
+    private TourPackBenchmark() {
+    }
+
+    /**
+     * Runs the benchmark. Must not be called on the UI thread.
+     *
+     * @param context
+     */
+    public static void run(Context context) {
+        final TourDbHelper dbHelper = new TourDbHelper(context);
+        final File packFile = new File(context.getCacheDir(), PACK_FILE_NAME);
+        try {
+            TourSnapshot.load(dbHelper).writePack(packFile, dbHelper.getSourceHash());
+
+            // Warm up, so that the first run does not pay for class loading
+            runOnce(0, dbHelper, packFile, new long[2]);
+            runOnce(1, dbHelper, packFile, new long[2]);
+
+            long[] result = new long[2];
+            for (int mode = 0; mode < 2; mode++) {
+                long millis = 0;
+                long allocations = 0;
+                for (int i = 0; i < ITERATIONS; i++) {
+                    runOnce(mode, dbHelper, packFile, result);
+                    millis += result[0];
+                    allocations += result[1];
+                }
+                Log.i(TAG, name(mode) + ": " + millis / (float) ITERATIONS + "ms, "
+                        + allocations / ITERATIONS + " allocations per load");
+            }
+            Log.i(TAG, "Pack size: " + packFile.length() + " bytes, database size: "
+                    + context.getDatabasePath(TourDbHelper.DATABASE_NAME).length() + " bytes");
+
+            reportHeap(dbHelper, packFile);
+        } catch (IOException e) {
+            Log.w(TAG, "Benchmark failed.", e);
+        } finally {
+            packFile.delete();
+        }
+    }
+
+    /**
+     * Loads the data once as the map does on a cold start and stores the
+     * elapsed time and the number of allocations in the result.
+     */
+    private static void runOnce(int mode, TourDbHelper dbHelper, File packFile, long[] result)
+            throws IOException {
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        final long start = SystemClock.elapsedRealtime();
+        TourSnapshot snapshot = mode == 0 ? TourSnapshot.load(dbHelper)
+                : TourSnapshot.load(TourPack.open(packFile));
+        LatLngBounds bounds = snapshot.getPoiBounds();
+        snapshot.createRoute();
+        if (bounds != null) {
+            snapshot.getPoisInBounds(viewport(bounds.getCenter()));
+        }
+        result[0] = SystemClock.elapsedRealtime() - start;
+        Debug.stopAllocCounting();
+        result[1] = Debug.getThreadAllocCount();
+    }
+
+    /**
+     * Logs the heap used by a snapshot with and without a POI object for
+     * every POI, and by a snapshot served from the pack.
+     */
+    private static void reportHeap(TourDbHelper dbHelper, File packFile) throws IOException {
+        final long before = usedHeap();
+        TourSnapshot snapshot = TourSnapshot.load(dbHelper);
+        final long store = usedHeap() - before;
+
+        // Create a POI view for every POI and keep them referenced until
+        // measured
+        ArrayList<PointOfInterest> pois = new ArrayList<PointOfInterest>(snapshot.getPois());
+        final long objects = usedHeap() - before - store;
+
+        Log.i(TAG, "Heap of " + pois.size() + " POIs: store and route " + store
+                + " bytes, POI views another " + objects + " bytes; estimated "
+                + snapshot.getPoiStore().getHeapBytes() + " bytes as store, "
+                + snapshot.getPoiStore().getObjectHeapBytes() + " bytes as full objects");
+
+        pois = null;
+        snapshot = null;
+        final long beforePack = usedHeap();
+        TourSnapshot packSnapshot = TourSnapshot.load(TourPack.open(packFile));
+        Log.i(TAG, "Heap of the snapshot of the pack: " + (usedHeap() - beforePack)
+                + " bytes; estimated " + packSnapshot.getPoiStore().getHeapBytes() + " bytes");
+    }
+
+    /**
+     * Returns the used heap after a garbage collection.
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        runtime.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Returns a viewport of {@link #VIEWPORT_SIZE} around the point.
+     */
+    private static LatLngBounds viewport(LatLng center) {
+        final double half = VIEWPORT_SIZE / 2;
+        return new LatLngBounds(new LatLng(center.latitude - half, center.longitude - half),
+                new LatLng(center.latitude + half, center.longitude + half));
+    }
+
+    private static String name(int mode) {
+        return mode == 0 ? "database" : "pack";
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.google.touroflondon.data;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Writes a {@link TourPack} file. POIs are added in ascending order of ID and
+ * route points in order along the route, and the file is written at once by
+ * {@link #write(File, String)}. This class
+ * only uses plain Java, so that packs can also be written from tour.json by
+ * the TourDbGenerator tool.
+ */
+public class TourPackWriter {
+
+    // Encoded strings, in the order of the string table
+    private final ArrayList<byte[]> mStrings = new ArrayList<byte[]>();
+    private final HashMap<String, Integer> mStringRefs = new HashMap<String, Integer>();
+    private int mStringTableSize = 0;
+
+    private final ArrayList<String> mTypes = new ArrayList<String>();
+
+    private long[] mIds = new long[16];
+    private int[] mLat = new int[16];
+    private int[] mLng = new int[16];
+    private byte[] mPoiTypes = new byte[16];
+    private int[] mPoiStrings = new int[16 * TourPack.STRINGS_PER_POI];
+    private int mPoiCount = 0;
+
+    private int[] mRouteLat = new int[64];
+    private int[] mRouteLng = new int[64];
+    private int mRouteCount = 0;
+
+    /**
+     * Adds a POI. The strings may be null.
+     *
+     * @param id Row ID of the POI in the database, greater than the ID of
+     *            the previous POI
+     * @param title
+     * @param description
+     * @param type Name of the type of the POI
+     * @param lat
+     * @param lng
+     * @param pictureAttr
+     * @param pictureUrl
+     */
+    public void addPoi(long id, String title, String description, String type, double lat,
+            double lng, String pictureAttr, String pictureUrl) {
+        if (mPoiCount > 0 && id <= mIds[mPoiCount - 1]) {
+            // Packs are searched by ID
+            throw new IllegalArgumentException("POIs must be added in ascending order of ID");
+        }
+        if (mPoiCount == mIds.length) {
+            final int capacity = mPoiCount * 2;
+            mIds = Arrays.copyOf(mIds, capacity);
+            mLat = Arrays.copyOf(mLat, capacity);
+            mLng = Arrays.copyOf(mLng, capacity);
+            mPoiTypes = Arrays.copyOf(mPoiTypes, capacity);
+            mPoiStrings = Arrays.copyOf(mPoiStrings, capacity * TourPack.STRINGS_PER_POI);
+        }
+        int typeCode = mTypes.indexOf(type);
+        if (typeCode == -1) {
+            if (mTypes.size() == TourPack.MAX_TYPES) {
+                throw new IllegalArgumentException("Too many POI types: " + type);
+            }
+            typeCode = mTypes.size();
+            mTypes.add(type);
+        }
+
+        mIds[mPoiCount] = id;
+        mLat[mPoiCount] = TourPack.toE6(lat);
+        mLng[mPoiCount] = TourPack.toE6(lng);
+        mPoiTypes[mPoiCount] = (byte) typeCode;
+        final int strings = mPoiCount * TourPack.STRINGS_PER_POI;
+        mPoiStrings[strings + TourPack.STRING_TITLE] = ref(title);
+        mPoiStrings[strings + TourPack.STRING_DESCRIPTION] = ref(description);
+        mPoiStrings[strings + TourPack.STRING_PICTURE_ATTR] = ref(pictureAttr);
+        mPoiStrings[strings + TourPack.STRING_PICTURE_URL] = ref(pictureUrl);
+        mPoiCount++;
+    }
+
+    /**
+     * Adds the next point of the route.
+     *
+     * @param lat
+     * @param lng
+     */
+    public void addRoutePoint(double lat, double lng) {
+        if (mRouteCount == mRouteLat.length) {
+            mRouteLat = Arrays.copyOf(mRouteLat, mRouteCount * 2);
+            mRouteLng = Arrays.copyOf(mRouteLng, mRouteCount * 2);
+        }
+        mRouteLat[mRouteCount] = TourPack.toE6(lat);
+        mRouteLng[mRouteCount] = TourPack.toE6(lng);
+        mRouteCount++;
+    }
+
+    /**
+     * Writes the pack to the file. It is written to a temporary file first
+     * and moved into place once complete.
+     *
+     * @param file
+     * @param sourceHash Hash of the tour.json file the data was read from
+     * @throws IOException
+     */
+    public void write(File file, String sourceHash) throws IOException {
+        final int hashRef = ref(sourceHash);
+        final int[] typeRefs = new int[mTypes.size()];
+        for (int i = 0; i < typeRefs.length; i++) {
+            typeRefs[i] = ref(mTypes.get(i));
+        }
+
+        // Group the POI indexes by type, in the order of the POIs
+        final int[] typeStarts = new int[mTypes.size() + 1];
+        for (int i = 0; i < mPoiCount; i++) {
+            typeStarts[mPoiTypes[i] + 1]++;
+        }
+        for (int t = 1; t < typeStarts.length; t++) {
+            typeStarts[t] += typeStarts[t - 1];
+        }
+        final int[] typeIndex = new int[mPoiCount];
+        final int[] next = Arrays.copyOf(typeStarts, typeStarts.length);
+        for (int i = 0; i < mPoiCount; i++) {
+            typeIndex[next[mPoiTypes[i]]++] = i;
+        }
+
+        final int[] cellOrder = SpatialGrid.sortByCell(mLat, mLng, mPoiCount);
+        final int[] cells = new int[mPoiCount];
+        for (int i = 0; i < mPoiCount; i++) {
+            // All cells of the grid fit into an int
+            cells[i] = (int) SpatialGrid.cellE6(mLat[cellOrder[i]], mLng[cellOrder[i]]);
+        }
+
+        final TourPack.Layout layout = new TourPack.Layout(mPoiCount, mTypes.size(),
+                mRouteCount, mStringTableSize);
+        ByteBuffer buffer = ByteBuffer.allocate(layout.mSize);
+
+        buffer.putInt(TourPack.MAGIC);
+        buffer.putInt(TourPack.VERSION);
+        buffer.putInt(mPoiCount);
+        buffer.putInt(mTypes.size());
+        buffer.putInt(mRouteCount);
+        buffer.putInt(mStringTableSize);
+        buffer.putInt(hashRef);
+
+        buffer.position(layout.mIds);
+        buffer.asLongBuffer().put(mIds, 0, mPoiCount);
+        buffer.position(layout.mLat);
+        buffer.asIntBuffer().put(mLat, 0, mPoiCount);
+        buffer.position(layout.mLng);
+        buffer.asIntBuffer().put(mLng, 0, mPoiCount);
+        buffer.position(layout.mTypes);
+        buffer.put(mPoiTypes, 0, mPoiCount);
+        buffer.position(layout.mStrings);
+        buffer.asIntBuffer().put(mPoiStrings, 0, mPoiCount * TourPack.STRINGS_PER_POI);
+        buffer.position(layout.mTypeNames);
+        buffer.asIntBuffer().put(typeRefs);
+        buffer.position(layout.mTypeStarts);
+        buffer.asIntBuffer().put(typeStarts);
+        buffer.position(layout.mTypeIndex);
+        buffer.asIntBuffer().put(typeIndex);
+        buffer.position(layout.mRouteLat);
+        buffer.asIntBuffer().put(mRouteLat, 0, mRouteCount);
+        buffer.position(layout.mRouteLng);
+        buffer.asIntBuffer().put(mRouteLng, 0, mRouteCount);
+        buffer.position(layout.mCellOrder);
+        buffer.asIntBuffer().put(cellOrder);
+        buffer.position(layout.mCells);
+        buffer.asIntBuffer().put(cells);
+
+        buffer.position(layout.mStringTable);
+        for (byte[] bytes : mStrings) {
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+        buffer.rewind();
+
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            FileChannel channel = out.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Could not move " + tmp + " to " + file);
+        }
+    }
+
+    /**
+     * Returns the offset of the string in the string table, adding it if
+     * needed, or {@link TourPack#NO_STRING} for null. Equal strings are only
+     * stored once.
+     */
+    private int ref(String s) {
+        if (s == null) {
+            return TourPack.NO_STRING;
+        }
+        Integer ref = mStringRefs.get(s);
+        if (ref == null) {
+            ref = mStringTableSize;
+            mStringRefs.put(s, ref);
+            byte[] bytes = s.getBytes(TourPack.CHARSET);
+            mStrings.add(bytes);
+            mStringTableSize += 4 + bytes.length;
+        }
+        return ref;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.google.touroflondon.data;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Holds the {@link TourSnapshot} of the tour data that is shared by the whole
+ * process, so that the map, the POI list and the info windows are served from
+ * a single copy of the data that is read from the database only once. The
+ * snapshot is dropped with {@link #invalidate()} once the import has written
+ * new data and is loaded again the next time it is requested.
+ * <p>
+ * Snapshots are served from a {@link TourPack} in the cache directory if it
+ * has been written from the same tour.json as the database. The pack is
+ * either installed with the prebuilt database or written from the database
+ * in the background for the next start.
+ */
+public class TourRepository {
+
+    private static final String TAG = "TourRepository";
+
+    private static TourRepository sInstance;
+
+    private final Context mContext;
+
+    private final File mPackFile;
+
+    private TourSnapshot mSnapshot;
+
+    private TourRepository(Context context) {
+        mContext = context;
+        mPackFile = new File(context.getCacheDir(), TourPack.FILE_NAME);
+    }
+
+    /**
+     * Returns the repository of the process.
+     *
+     * @param context
+     * @return
+     */
+    public static synchronized TourRepository getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new TourRepository(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the snapshot of the tour data, reading it from the database if
+     * it has not been loaded yet. Must not be called on the UI thread.
+     *
+     * @return
+     */
+    public synchronized TourSnapshot getSnapshot() {
+        if (mSnapshot == null) {
+            final long start = SystemClock.elapsedRealtime();
+            TourDbHelper dbHelper = new TourDbHelper(mContext);
+            final String sourceHash = dbHelper.getSourceHash();
+
+            mSnapshot = loadPack(sourceHash);
+            final boolean fromPack = mSnapshot != null;
+            if (!fromPack) {
+                mSnapshot = TourSnapshot.load(dbHelper);
+                if (sourceHash != null) {
+                    writePack(mSnapshot, sourceHash);
+                }
+            }
+            Log.d(TAG, "Loaded " + mSnapshot.getPois().size() + " POIs and "
+                    + mSnapshot.getRoutePointCount() + " route points from the "
+                    + (fromPack ? "pack" : "database") + " in "
+                    + (SystemClock.elapsedRealtime() - start) + "ms");
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, mSnapshot.getPoiStore().toString());
+            }
+        }
+        return mSnapshot;
+    }
+
+    /**
+     * Returns the snapshot if it has been loaded, or null otherwise. Unlike
+     * {@link #getSnapshot()} this never reads from the database.
+     *
+     * @return
+     */
+    public synchronized TourSnapshot peekSnapshot() {
+        return mSnapshot;
+    }
+
+    /**
+     * Drops the snapshot after new data has been written to the database. A
+     * load that is in progress completes first, so that its stale snapshot is
+     * dropped as well.
+     */
+    public synchronized void invalidate() {
+        mSnapshot = null;
+    }
+
+    /**
+     * Copies the prebuilt pack from the assets into the cache directory, if
+     * one has been packaged with the app. Called after the prebuilt database
+     * has been installed, as the pack has been generated from the same
+     * tour.json. The snapshot is served from the pack on the next load.
+     *
+     * @return True if the prebuilt pack has been installed
+     */
+    public boolean installPrebuiltPack() {
+        synchronized (mPackFile) {
+            return TourDbHelper.copyAsset(mContext, TourPack.FILE_NAME, mPackFile);
+        }
+    }
+
+    /**
+     * Returns the snapshot of the pack, or null if there is no pack for the
+     * data in the database.
+     */
+    private TourSnapshot loadPack(String sourceHash) {
+        if (sourceHash == null || !mPackFile.exists()) {
+            return null;
+        }
+        try {
+            TourPack pack = TourPack.open(mPackFile);
+            if (!sourceHash.equals(pack.getSourceHash())) {
+                // Written before the last import
+                return null;
+            }
+            return TourSnapshot.load(pack);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read tour pack.", e);
+            mPackFile.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Writes the snapshot to the pack on a background thread.
+     */
+    private void writePack(final TourSnapshot snapshot, final String sourceHash) {
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                // One writer at a time, they share the temporary file
+                synchronized (mPackFile) {
+                    try {
+                        snapshot.writePack(mPackFile, sourceHash);
+                    } catch (IOException e) {
+                        Log.w(TAG, "Could not write tour pack.", e);
+                    }
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.google.touroflondon.data;
+
+/**
+ * The schema of the tour database, see {@link TourContract}. Kept apart from
+ * {@link TourDbHelper} so that the build-time database generator can create
+ * the same schema without the dependencies of the helper.
+ */
+final class TourSchema {
+
+    /** Version of the schema, see {@link TourDbHelper#DATABASE_VERSION}. */
+    static final int VERSION = 8;
+
+    // Database field types and constructs, used to create tables
+    private static final String TEXT_TYPE = " TEXT";
+    private static final String DOUBLE_TYPE = " DOUBLE";
+    private static final String INTEGER_TYPE = " INTEGER";
+    private static final String BLOB_TYPE = " BLOB";
+    private static final String COMMA_SEP = ",";
+
+    // SQL statement that creates a table for POI entries
+    private static final String SQL_CREATE_ENTRIES_POI =
+            "CREATE TABLE " + TourContract.PoiEntry.TABLE_NAME + " (" +
+                    TourContract.PoiEntry._ID + " INTEGER PRIMARY KEY," +
+                    TourContract.PoiEntry.COLUMN_NAME_KEY + TEXT_TYPE + COMMA_SEP +
+                    TourContract.PoiEntry.COLUMN_NAME_TITLE + TEXT_TYPE + COMMA_SEP +
+                    TourContract.PoiEntry.COLUMN_NAME_TYPE + TEXT_TYPE + COMMA_SEP +
+                    TourContract.PoiEntry.COLUMN_NAME_LOCATION_LAT + DOUBLE_TYPE + COMMA_SEP +
+                    TourContract.PoiEntry.COLUMN_NAME_LOCATION_LNG + DOUBLE_TYPE + COMMA_SEP +
+                    TourContract.PoiEntry.COLUMN_NAME_DESCRIPTION + TEXT_TYPE + COMMA_SEP +
+                    TourContract.PoiEntry.COLUMN_NAME_PICTURE_URL + TEXT_TYPE + COMMA_SEP +
+                    TourContract.PoiEntry.COLUMN_NAME_PICTURE_URL_PREFIX + INTEGER_TYPE
+                    + COMMA_SEP +
+                    TourContract.PoiEntry.COLUMN_NAME_PICTURE_ATTR + TEXT_TYPE + COMMA_SEP +
+                    TourContract.PoiEntry.COLUMN_NAME_PICTURE_LICENSE + INTEGER_TYPE
+                    + COMMA_SEP +
+                    TourContract.PoiEntry.COLUMN_NAME_HASH + INTEGER_TYPE + COMMA_SEP +
+                    TourContract.PoiEntry.COLUMN_NAME_CELL + INTEGER_TYPE +
+                    " )";
+
+    // SQL statement that creates a table of encoded route segments
+    private static final String SQL_CREATE_ENTRIES_ROUTE =
+            "CREATE TABLE " + TourContract.RouteEntry.TABLE_NAME + " (" +
+                    TourContract.RouteEntry._ID + " INTEGER PRIMARY KEY," +
+                    TourContract.RouteEntry.COLUMN_NAME_COUNT + INTEGER_TYPE + COMMA_SEP +
+                    TourContract.RouteEntry.COLUMN_NAME_POINTS + BLOB_TYPE + COMMA_SEP +
+                    TourContract.RouteEntry.COLUMN_NAME_HASH + INTEGER_TYPE +
+                    " )";
+
+    // SQL statement that creates the dictionary of shared strings
+    private static final String SQL_CREATE_ENTRIES_DICTIONARY =
+            "CREATE TABLE " + TourContract.DictionaryEntry.TABLE_NAME + " (" +
+                    TourContract.DictionaryEntry._ID + " INTEGER PRIMARY KEY," +
+                    TourContract.DictionaryEntry.COLUMN_NAME_VALUE + " TEXT UNIQUE" +
+                    " )";
+
+    // SQL statement that creates the metadata table
+    private static final String SQL_CREATE_ENTRIES_METADATA =
+            "CREATE TABLE " + TourContract.MetadataEntry.TABLE_NAME + " (" +
+                    TourContract.MetadataEntry.COLUMN_NAME_KEY + " TEXT PRIMARY KEY," +
+                    TourContract.MetadataEntry.COLUMN_NAME_VALUE + TEXT_TYPE +
+                    " )";
+
+    // SQL statement that indexes the POI keys, used for incremental imports
+    private static final String SQL_CREATE_INDEX_POI_KEY =
+            "CREATE INDEX " + TourContract.PoiEntry.TABLE_NAME + "_"
+                    + TourContract.PoiEntry.COLUMN_NAME_KEY + " ON "
+                    + TourContract.PoiEntry.TABLE_NAME + " ("
+                    + TourContract.PoiEntry.COLUMN_NAME_KEY + ")";
+
+    // SQL statement that indexes the POI grid cells, used for bounding box
+    // queries
+    private static final String SQL_CREATE_INDEX_POI_CELL =
+            "CREATE INDEX " + TourContract.PoiEntry.TABLE_NAME + "_"
+                    + TourContract.PoiEntry.COLUMN_NAME_CELL + " ON "
+                    + TourContract.PoiEntry.TABLE_NAME + " ("
+                    + TourContract.PoiEntry.COLUMN_NAME_CELL + ")";
+
+    /** SQL statements that create the schema, in order. */
+    static final String[] SQL_CREATE_SCHEMA = {
+            SQL_CREATE_ENTRIES_POI,
+            SQL_CREATE_INDEX_POI_KEY,
+            SQL_CREATE_INDEX_POI_CELL,
+            SQL_CREATE_ENTRIES_ROUTE,
+            SQL_CREATE_ENTRIES_DICTIONARY,
+            SQL_CREATE_ENTRIES_METADATA
+    };
+
+    // prevent instantiation
+    private TourSchema() {
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.google.touroflondon.data;
+
+import com.example.google.touroflondon.PointOfInterest;
+import com.example.google.touroflondon.data.TourContract.RouteEntry;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import android.database.Cursor;
+import android.support.v4.util.LongSparseArray;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An immutable view of all POIs and the route. POIs are kept in a
+ * {@link PoiStore}, which creates {@link PointOfInterest} objects only for the
+ * POIs that are used, and the bounding box of all POIs is computed when the
+ * snapshot is loaded.
+ * <p>
+ * Snapshots are loaded from the database, which copies the POIs and the route
+ * into arrays, or from a {@link TourPack}, which serves them straight from the
+ * mapping of the pack. Snapshots are shared by the {@link TourRepository}.
+ */
+public class TourSnapshot {
+
+    private final PoiStore mStore;
+
+    private final List<PointOfInterest> mPoiList;
+
+    // The pack the route is read from, or null if the route is in the arrays
+    private final TourPack mPack;
+
+    // The points of the route in microdegrees, if it was read from the
+    // database
+    private final int[] mRouteLatE6;
+    private final int[] mRouteLngE6;
+
+    private final LatLngBounds mPoiBounds;
+
+    private TourSnapshot(PoiStore store, TourPack pack, int[] routeLatE6, int[] routeLngE6) {
+        mStore = store;
+        mPoiList = store.asList();
+        mPack = pack;
+        mRouteLatE6 = routeLatE6;
+        mRouteLngE6 = routeLngE6;
+
+        if (store.size() > 0) {
+            int minLat = Integer.MAX_VALUE;
+            int minLng = Integer.MAX_VALUE;
+            int maxLat = Integer.MIN_VALUE;
+            int maxLng = Integer.MIN_VALUE;
+            for (int i = 0; i < store.size(); i++) {
+                minLat = Math.min(minLat, store.getLatitudeE6(i));
+                minLng = Math.min(minLng, store.getLongitudeE6(i));
+                maxLat = Math.max(maxLat, store.getLatitudeE6(i));
+                maxLng = Math.max(maxLng, store.getLongitudeE6(i));
+            }
+            mPoiBounds = new LatLngBounds(
+                    new LatLng(TourPack.fromE6(minLat), TourPack.fromE6(minLng)),
+                    new LatLng(TourPack.fromE6(maxLat), TourPack.fromE6(maxLng)));
+        } else {
+            mPoiBounds = null;
+        }
+    }
+
+    /**
+     * Reads all POIs and the route from the database.
+     *
+     * @param dbHelper
+     * @return
+     */
+    static TourSnapshot load(TourDbHelper dbHelper) {
+        // Read each shared string once, POI rows only reference them
+        LongSparseArray<String> dictionary = new LongSparseArray<String>();
+        Cursor cursor = dbHelper.getDictionary(DictionaryQuery.PROJECTION);
+        try {
+            while (cursor.moveToNext()) {
+                dictionary.put(cursor.getLong(DictionaryQuery.ID),
+                        cursor.getString(DictionaryQuery.VALUE));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        PoiStore.Builder pois = new PoiStore.Builder();
+        cursor = dbHelper.getAllPoi(PoiQuery.PROJECTION);
+        try {
+            while (cursor.moveToNext()) {
+                pois.add(cursor.getLong(PoiQuery.POI_ID),
+                        cursor.getString(PoiQuery.POI_TITLE),
+                        cursor.getString(PoiQuery.POI_DESCRIPTION),
+                        PointOfInterest.Type.valueOf(cursor.getString(PoiQuery.POI_TYPE)),
+                        TourPack.toE6(cursor.getDouble(PoiQuery.POI_LOCATION_LAT)),
+                        TourPack.toE6(cursor.getDouble(PoiQuery.POI_LOCATION_LNG)),
+                        cursor.getString(PoiQuery.POI_PICTURE_ATTR),
+                        lookUp(dictionary, cursor, PoiQuery.POI_PICTURE_LICENSE),
+                        lookUp(dictionary, cursor, PoiQuery.POI_PICTURE_URL_PREFIX),
+                        cursor.getString(PoiQuery.POI_PICTURE_URL));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        int[][] route;
+        cursor = dbHelper.getRoute(RouteQuery.PROJECTION);
+        try {
+            route = decodeRoute(cursor);
+        } finally {
+            cursor.close();
+        }
+
+        return new TourSnapshot(pois.build(), null, route[0], route[1]);
+    }
+
+    /**
+     * Returns a snapshot of the POIs and the route in the pack. Nothing is
+     * copied, all values are read from the mapping of the pack when they are
+     * requested.
+     *
+     * @param pack
+     * @return
+     */
+    static TourSnapshot load(TourPack pack) {
+        return new TourSnapshot(PoiStore.of(pack), pack, null, null);
+    }
+
+    /**
+     * Writes the snapshot to a pack file.
+     *
+     * @param file
+     * @param sourceHash Hash of the tour.json file the data was imported from
+     * @throws IOException
+     */
+    void writePack(File file, String sourceHash) throws IOException {
+        TourPackWriter writer = new TourPackWriter();
+        for (int i = 0; i < mStore.size(); i++) {
+            writer.addPoi(mStore.getId(i), mStore.getTitle(i), mStore.getDescription(i),
+                    mStore.getType(i).name(), TourPack.fromE6(mStore.getLatitudeE6(i)),
+                    TourPack.fromE6(mStore.getLongitudeE6(i)), mStore.getPictureAttr(i),
+                    mStore.getPictureUrl(i));
+        }
+        for (int i = 0; i < getRoutePointCount(); i++) {
+            writer.addRoutePoint(TourPack.fromE6(getRouteLatitudeE6(i)),
+                    TourPack.fromE6(getRouteLongitudeE6(i)));
+        }
+        writer.write(file, sourceHash);
+    }
+
+    /**
+     * Returns the store of all POIs, for callers that can read their values
+     * without a {@link PointOfInterest} object.
+     *
+     * @return
+     */
+    public PoiStore getPoiStore() {
+        return mStore;
+    }
+
+    /**
+     * Returns all POIs, ordered by ID.
+     *
+     * @return
+     */
+    public List<PointOfInterest> getPois() {
+        return mPoiList;
+    }
+
+    /**
+     * Returns the POIs within the bounding box, looked up through the spatial
+     * index of the store. Only the POIs within the bounds are created.
+     *
+     * @param bounds
+     * @return
+     */
+    public List<PointOfInterest> getPoisInBounds(LatLngBounds bounds) {
+        return mStore.getInBounds(bounds);
+    }
+
+    /**
+     * Returns the POI with the ID, or null if there is none.
+     *
+     * @param id
+     * @return
+     */
+    public PointOfInterest getPoi(long id) {
+        int index = mStore.indexOf(id);
+        return index >= 0 ? mStore.get(index) : null;
+    }
+
+    public int getRoutePointCount() {
+        return mPack != null ? mPack.getRoutePointCount() : mRouteLatE6.length;
+    }
+
+    public int getRouteLatitudeE6(int point) {
+        return mPack != null ? mPack.getRouteLatitudeE6(point) : mRouteLatE6[point];
+    }
+
+    public int getRouteLongitudeE6(int point) {
+        return mPack != null ? mPack.getRouteLongitudeE6(point) : mRouteLngE6[point];
+    }
+
+    /**
+     * Creates a new list of all points of the route in order. Should be
+     * called on a worker thread, such as in a {@link TourDataLoader}.
+     *
+     * @return
+     */
+    public List<LatLng> createRoute() {
+        final int count = getRoutePointCount();
+        ArrayList<LatLng> route = new ArrayList<LatLng>(count);
+        for (int i = 0; i < count; i++) {
+            route.add(new LatLng(TourPack.fromE6(getRouteLatitudeE6(i)),
+                    TourPack.fromE6(getRouteLongitudeE6(i))));
+        }
+        return route;
+    }
+
+    /**
+     * Returns the bounding box of all POIs, or null if there are no POIs.
+     *
+     * @return
+     */
+    public LatLngBounds getPoiBounds() {
+        return mPoiBounds;
+    }
+
+    /**
+     * Returns the dictionary entry referenced by the column, or null if the
+     * column is null.
+     */
+    private static String lookUp(LongSparseArray<String> dictionary, Cursor cursor, int column) {
+        return cursor.isNull(column) ? null : dictionary.get(cursor.getLong(column));
+    }
+
+    /**
+     * Decodes all route segments of the cursor and returns the latitudes and
+     * longitudes of their points in microdegrees.
+     */
+    private static int[][] decodeRoute(Cursor cursor) {
+        final double[] lat = new double[RouteEntry.POINTS_PER_SEGMENT];
+        final double[] lng = new double[RouteEntry.POINTS_PER_SEGMENT];
+        int[] routeLat = new int[cursor.getCount() * RouteEntry.POINTS_PER_SEGMENT];
+        int[] routeLng = new int[routeLat.length];
+        int size = 0;
+
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            final int count = cursor.getInt(RouteQuery.ROUTE_COUNT);
+            RouteCodec.decode(cursor.getBlob(RouteQuery.ROUTE_POINTS), count, lat, lng);
+            for (int i = 0; i < count; i++) {
+                routeLat[size] = TourPack.toE6(lat[i]);
+                routeLng[size] = TourPack.toE6(lng[i]);
+                size++;
+            }
+        }
+        return new int[][] {
+                Arrays.copyOf(routeLat, size), Arrays.copyOf(routeLng, size)
+        };
+    }
+
+    /**
+     * Projection for POI query.
+     */
+    private interface PoiQuery {
+
+        String[] PROJECTION = {
+                TourContract.PoiEntry._ID,
+                TourContract.PoiEntry.COLUMN_NAME_TITLE,
+                TourContract.PoiEntry.COLUMN_NAME_DESCRIPTION,
+                TourContract.PoiEntry.COLUMN_NAME_TYPE,
+                TourContract.PoiEntry.COLUMN_NAME_LOCATION_LAT,
+                TourContract.PoiEntry.COLUMN_NAME_LOCATION_LNG,
+                TourContract.PoiEntry.COLUMN_NAME_PICTURE_ATTR,
+                TourContract.PoiEntry.COLUMN_NAME_PICTURE_LICENSE,
+                TourContract.PoiEntry.COLUMN_NAME_PICTURE_URL_PREFIX,
+                TourContract.PoiEntry.COLUMN_NAME_PICTURE_URL
+        };
+
+        final int POI_ID = 0;
+        final int POI_TITLE = 1;
+        final int POI_DESCRIPTION = 2;
+        final int POI_TYPE = 3;
+        final int POI_LOCATION_LAT = 4;
+        final int POI_LOCATION_LNG = 5;
+        final int POI_PICTURE_ATTR = 6;
+        final int POI_PICTURE_LICENSE = 7;
+        final int POI_PICTURE_URL_PREFIX = 8;
+        final int POI_PICTURE_URL = 9;
+    }
+
+    /**
+     * Projection for the dictionary query.
+     */
+    private interface DictionaryQuery {
+
+        String[] PROJECTION = {
+                TourContract.DictionaryEntry._ID,
+                TourContract.DictionaryEntry.COLUMN_NAME_VALUE
+        };
+
+        final int ID = 0;
+        final int VALUE = 1;
+    }
+
+    /**
+     * Projection for the route query. Each row is a segment of the route.
+     */
+    private interface RouteQuery {
+
+        String[] PROJECTION = {
+                RouteEntry.COLUMN_NAME_COUNT,
+                RouteEntry.COLUMN_NAME_POINTS
+        };
+
+        final int ROUTE_COUNT = 0;
+        final int ROUTE_POINTS = 1;
+    }
+}
@@ -17,32 +17,20 @@
 package com.example.google.touroflondon.data;
 
 import android.content.Context;
-import android.database.Cursor;
 
 /**
- * An instance of the {@link SqlCursorLoader} that returns a loader from
- * {@link TourDbHelper#getAllPoi()} that includes all POI entries in the
- * database.
+ * A {@link TourDataLoader} that returns the {@link TourSnapshot} of the
+ * {@link TourRepository}. The snapshot is only read from the database by the
+ * first loader, all other loaders return the same snapshot.
  */
-public class PoiCursorLoader extends SqlCursorLoader {
+public class TourSnapshotLoader extends TourDataLoader<TourSnapshot> {
 
-    private String[] mProjection;
-
-    /**
-     * Create a new intance for that loads all POIs from the database with the
-     * given projection.
-     * 
-     * @param context
-     * @param projection
-     */
-    public PoiCursorLoader(Context context, String[] projection) {
+    public TourSnapshotLoader(Context context) {
         super(context);
-
-        this.mProjection = projection;
     }
 
     @Override
-    public Cursor loadInBackground() {
-        return new TourDbHelper(this.getContext()).getAllPoi(mProjection);
+    protected TourSnapshot load(TourSnapshot snapshot) {
+        return snapshot;
     }
 }
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.google.touroflondon.image;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+/**
+ * Decodes thumbnails to the size they are shown at. An image is subsampled
+ * and then scaled while it is decoded so that its shorter side matches the
+ * target size, instead of decoding it at full size and scaling the decoded
+ * bitmap.
+ */
+public class BitmapDecoder {
+
+    /** The config of all decoded thumbnails. */
+    private static final Bitmap.Config CONFIG = Bitmap.Config.ARGB_4444;
+
+    // Decode one image at a time to limit the memory used while decoding
+    private static final Object sDecodeLock = new Object();
+
+    private BitmapDecoder() {
+    }
+
+    /**
+     * Decodes the image so that its shorter side has the target size. Images
+     * that are smaller are not scaled up.
+     *
+     * @param data The encoded image
+     * @param targetSize The size of the shorter side in pixels
+     * @return The bitmap, or null if the image could not be decoded
+     */
+    public static Bitmap decode(byte[] data, int targetSize) {
+        synchronized (sDecodeLock) {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(data, 0, data.length, options);
+            final int width = options.outWidth;
+            final int height = options.outHeight;
+            if (width <= 0 || height <= 0) {
+                return null;
+            }
+
+            // Subsample by the largest power of two that keeps the image
+            // larger than the target size
+            int sampleSize = 1;
+            while (Math.min(width, height) / (sampleSize * 2) >= targetSize) {
+                sampleSize *= 2;
+            }
+
+            options = new BitmapFactory.Options();
+            options.inSampleSize = sampleSize;
+            options.inPreferredConfig = CONFIG;
+
+            final int sampledSize = Math.min(width, height) / sampleSize;
+            if (sampledSize > targetSize) {
+                // Scale the rest of the way while decoding
+                options.inDensity = sampledSize;
+                options.inTargetDensity = targetSize;
+            }
+
+            Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+            if (bitmap != null) {
+                // Draw the bitmap at its pixel size
+                bitmap.setDensity(Bitmap.DENSITY_NONE);
+            }
+            return bitmap;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.google.touroflondon.image;
+
+import com.android.volley.DefaultRetryPolicy;
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.BasicNetwork;
+import com.android.volley.toolbox.HttpHeaderParser;
+import com.android.volley.toolbox.HurlStack;
+import com.android.volley.toolbox.NoCache;
+
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Schedules the image downloads of the whole app on a single Volley queue
+ * with a small, fixed number of network threads. Requests are served in order
+ * of their {@link Priority} and records are kept of the latency and size of
+ * every request. Images are decoded with the {@link BitmapDecoder}.
+ * <p>
+ * The queue does not cache responses, decoded thumbnails are cached by the
+ * {@link ThumbnailCache} instead. All methods must be called on the UI thread.
+ */
+public class ImageScheduler {
+
+    private static final String TAG = "ImageScheduler";
+
+    /** Number of threads downloading images. */
+    private static final int NETWORK_THREADS = 2;
+
+    // The retry policy of Volley's image requests
+    private static final int TIMEOUT_MS = 1000;
+    private static final int MAX_RETRIES = 2;
+    private static final float BACKOFF_MULT = 2f;
+
+    // Marker Volley adds when a network thread takes a request from the queue
+    private static final String NETWORK_QUEUE_TAKE = "network-queue-take";
+
+    /**
+     * Priorities of the image requests, in descending order.
+     */
+    public enum Priority {
+        /** An image that is shown right now, such as in an open info window. */
+        VISIBLE(Request.Priority.HIGH),
+        /** An image that is likely to be shown soon. */
+        PREFETCH(Request.Priority.NORMAL),
+        /** An image that may be shown eventually. */
+        BACKGROUND(Request.Priority.LOW);
+
+        final Request.Priority mVolleyPriority;
+
+        private Priority(Request.Priority volleyPriority) {
+            mVolleyPriority = volleyPriority;
+        }
+    }
+
+    /**
+     * An image request with a priority that measures its own latency and
+     * size.
+     */
+    private class ScheduledRequest extends Request<Bitmap> {
+        // Qualified, Request declares a Priority of its own
+        private final ImageScheduler.Priority mPriority;
+        private final int mTargetSize;
+        private final Response.Listener<Bitmap> mListener;
+        private final long mStart = SystemClock.elapsedRealtime();
+
+        // Set on a network thread
+        private volatile int mBytes = 0;
+
+        // Set once a network thread has taken the request from the queue,
+        // guarded by the request
+        private boolean mTaken = false;
+
+        ScheduledRequest(String url, int targetSize, ImageScheduler.Priority priority,
+                Response.Listener<Bitmap> listener, Response.ErrorListener errorListener) {
+            super(Method.GET, url, errorListener);
+            setRetryPolicy(new DefaultRetryPolicy(TIMEOUT_MS, MAX_RETRIES, BACKOFF_MULT));
+            mTargetSize = targetSize;
+            mPriority = priority;
+            mListener = listener;
+        }
+
+        @Override
+        public Request.Priority getPriority() {
+            return mPriority.mVolleyPriority;
+        }
+
+        @Override
+        public void addMarker(String tag) {
+            if (NETWORK_QUEUE_TAKE.equals(tag)) {
+                // The network thread checks whether the request has been
+                // cancelled right after this marker
+                synchronized (this) {
+                    mTaken = true;
+                }
+            }
+            super.addMarker(tag);
+        }
+
+        /**
+         * Cancels the request unless a network thread has already taken it.
+         */
+        synchronized boolean cancelIfWaiting() {
+            if (mTaken) {
+                return false;
+            }
+            cancel();
+            return true;
+        }
+
+        @Override
+        protected Response<Bitmap> parseNetworkResponse(NetworkResponse response) {
+            mBytes = response.data.length;
+            Bitmap bitmap = BitmapDecoder.decode(response.data, mTargetSize);
+            if (bitmap == null) {
+                return Response.error(new ParseError(response));
+            }
+            return Response.success(bitmap, HttpHeaderParser.parseCacheHeaders(response));
+        }
+
+        @Override
+        protected void deliverResponse(Bitmap response) {
+            record(this, true);
+            mListener.onResponse(response);
+        }
+
+        @Override
+        public void deliverError(VolleyError error) {
+            record(this, false);
+            super.deliverError(error);
+        }
+    }
+
+    private static ImageScheduler sInstance;
+
+    private final RequestQueue mQueue;
+
+    // Completed requests and their totals, by priority
+    private final int[] mCompleted = new int[Priority.values().length];
+    private final int[] mFailed = new int[Priority.values().length];
+    private final long[] mBytes = new long[Priority.values().length];
+    private final long[] mLatencyMillis = new long[Priority.values().length];
+    private int mCancelled = 0;
+
+    private ImageScheduler() {
+        mQueue = new RequestQueue(new NoCache(), new BasicNetwork(new HurlStack()),
+                NETWORK_THREADS);
+        mQueue.start();
+    }
+
+    /**
+     * Returns the scheduler of the process.
+     *
+     * @return
+     */
+    public static synchronized ImageScheduler getInstance() {
+        if (sInstance == null) {
+            sInstance = new ImageScheduler();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Downloads the image and decodes it so that its shorter side has the
+     * target size.
+     *
+     * @param url
+     * @param targetSize The size of the shorter side in pixels
+     * @param priority
+     * @param listener
+     * @param errorListener
+     * @return The request, which can be used to cancel it
+     */
+    public Request<Bitmap> load(String url, int targetSize, Priority priority,
+            Response.Listener<Bitmap> listener, Response.ErrorListener errorListener) {
+        Request<Bitmap> request = new ScheduledRequest(url, targetSize, priority, listener,
+                errorListener);
+        mQueue.add(request);
+        return request;
+    }
+
+    /**
+     * Cancels the request. Its listeners will not be called.
+     *
+     * @param request
+     */
+    public void cancel(Request<?> request) {
+        if (!request.isCanceled() && !request.hasHadResponseDelivered()) {
+            mCancelled++;
+        }
+        request.cancel();
+    }
+
+    /**
+     * Cancels the request if it is still waiting in the queue. A request that
+     * a network thread has already started is left running, as Volley can not
+     * abort it.
+     *
+     * @param request A request returned by
+     *            {@link #load(String, int, Priority, Response.Listener, Response.ErrorListener)}
+     * @return True if the request has been cancelled
+     */
+    public boolean cancelIfWaiting(Request<?> request) {
+        return ((ScheduledRequest) request).cancelIfWaiting();
+    }
+
+    private void record(ScheduledRequest request, boolean success) {
+        final long latency = SystemClock.elapsedRealtime() - request.mStart;
+        final int index = request.mPriority.ordinal();
+        if (success) {
+            mCompleted[index]++;
+        } else {
+            mFailed[index]++;
+        }
+        mBytes[index] += request.mBytes;
+        mLatencyMillis[index] += latency;
+
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, toString());
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("Image requests:");
+        for (Priority priority : Priority.values()) {
+            final int index = priority.ordinal();
+            final int count = mCompleted[index] + mFailed[index];
+            sb.append(' ').append(priority).append(' ').append(mCompleted[index])
+                    .append(" completed, ").append(mFailed[index]).append(" failed, ")
+                    .append(mBytes[index]).append(" bytes, ")
+                    .append(count > 0 ? mLatencyMillis[index] / count : 0).append("ms avg;");
+        }
+        return sb.append(' ').append(mCancelled).append(" cancelled").toString();
+    }
+}
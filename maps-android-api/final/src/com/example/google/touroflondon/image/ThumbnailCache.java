@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.google.touroflondon.image;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.os.AsyncTask;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A two level cache of the POI thumbnails, keyed by picture URL without its
+ * size, see {@link ThumbnailUrlResolver#cacheKey(String)}. Thumbnails
+ * are kept in an in-memory LRU cache and in a {@link ThumbnailDiskCache}, so
+ * that they survive a restart of the process and do not need to be downloaded
+ * again.
+ * <p>
+ * The memory cache is checked on the calling thread, while the disk cache is
+ * only accessed on a background thread. If the disk cache can not be opened,
+ * only the memory cache is used.
+ * <p>
+ * The size of the memory cache is a fraction of the memory class of the
+ * device, and the cache is trimmed when the system is low on memory.
+ * Evicted thumbnails are left to the garbage collector, as they may still be
+ * shown by an info window.
+ */
+public class ThumbnailCache implements ComponentCallbacks2 {
+
+    private static final String TAG = "ThumbnailCache";
+
+    /** Fraction of the memory class used by the memory cache. */
+    private static final int MEMORY_CACHE_DIVIDER = 16;
+
+    private static final long DISK_CACHE_SIZE_BYTES = 8 * 1024 * 1024; // 8 MB
+
+    private static final String DISK_CACHE_DIR = "thumbnails";
+
+    /**
+     * Receives the result of a disk cache lookup on the UI thread.
+     */
+    public interface Callback {
+        /**
+         * @param url
+         * @param bitmap The thumbnail, or null if it is not cached
+         */
+        public void onThumbnailLoaded(String url, Bitmap bitmap);
+    }
+
+    private static ThumbnailCache sInstance;
+
+    private final File mDiskCacheDir;
+
+    private final LruCache<String, Bitmap> mMemoryCache;
+
+    // Opened on first use on a background thread
+    private final Object mDiskCacheLock = new Object();
+    private ThumbnailDiskCache mDiskCache;
+    private boolean mDiskCacheOpened = false;
+
+    private int mMemoryHits = 0;
+    private int mMemoryMisses = 0;
+    private int mDiskHits = 0;
+    private int mDiskMisses = 0;
+
+    private ThumbnailCache(Context context) {
+        mDiskCacheDir = new File(context.getCacheDir(), DISK_CACHE_DIR);
+
+        final int memoryClass = ((ActivityManager) context
+                .getSystemService(Context.ACTIVITY_SERVICE)).getMemoryClass();
+        final int cacheSize = memoryClass * 1024 * 1024 / MEMORY_CACHE_DIVIDER;
+        mMemoryCache = new LruCache<String, Bitmap>(cacheSize) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount();
+            }
+        };
+    }
+
+    /**
+     * Returns the cache of the process. There is only one cache, so that the
+     * disk cache is never accessed by two instances.
+     *
+     * @param context
+     * @return
+     */
+    public static synchronized ThumbnailCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ThumbnailCache(context.getApplicationContext());
+            context.getApplicationContext().registerComponentCallbacks(sInstance);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the thumbnail of the URL if it is in the memory cache.
+     *
+     * @param url
+     * @return
+     */
+    public Bitmap get(String url) {
+        Bitmap bitmap = mMemoryCache.get(ThumbnailUrlResolver.cacheKey(url));
+        synchronized (this) {
+            if (bitmap != null) {
+                mMemoryHits++;
+            } else {
+                mMemoryMisses++;
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * Returns true if the thumbnail of the URL is in the memory cache. Unlike
+     * {@link #get(String)} this is not counted as a cache hit or miss.
+     *
+     * @param url
+     * @return
+     */
+    public boolean contains(String url) {
+        return mMemoryCache.get(ThumbnailUrlResolver.cacheKey(url)) != null;
+    }
+
+    /**
+     * Returns the maximum size of the memory cache in bytes.
+     *
+     * @return
+     */
+    public int getMemoryCacheMaxSize() {
+        return mMemoryCache.maxSize();
+    }
+
+    /**
+     * Looks up the thumbnail of the URL in the disk cache on a background
+     * thread. A thumbnail that is found is added to the memory cache before
+     * the callback is called.
+     *
+     * @param url
+     * @param targetSize The size of the shorter side of the thumbnail in pixels
+     * @param callback
+     */
+    public void load(final String url, final int targetSize, final Callback callback) {
+        final String key = ThumbnailUrlResolver.cacheKey(url);
+        new AsyncTask<Void, Void, Bitmap>() {
+            @Override
+            protected Bitmap doInBackground(Void... params) {
+                ThumbnailDiskCache diskCache = getDiskCache();
+                byte[] data = diskCache != null ? diskCache.get(key) : null;
+                Bitmap bitmap = data != null ? BitmapDecoder.decode(data, targetSize)
+                        : null;
+                synchronized (ThumbnailCache.this) {
+                    if (bitmap != null) {
+                        mDiskHits++;
+                    } else {
+                        mDiskMisses++;
+                    }
+                }
+                if (bitmap != null) {
+                    mMemoryCache.put(key, bitmap);
+                }
+                return bitmap;
+            }
+
+            @Override
+            protected void onPostExecute(Bitmap bitmap) {
+                if (Log.isLoggable(TAG, Log.DEBUG)) {
+                    Log.d(TAG, ThumbnailCache.this.toString());
+                }
+                callback.onThumbnailLoaded(url, bitmap);
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Adds a downloaded thumbnail to the memory cache and writes it to the
+     * disk cache on a background thread.
+     *
+     * @param url
+     * @param bitmap
+     */
+    public void put(String url, final Bitmap bitmap) {
+        final String key = ThumbnailUrlResolver.cacheKey(url);
+        mMemoryCache.put(key, bitmap);
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                ThumbnailDiskCache diskCache = getDiskCache();
+                if (diskCache != null) {
+                    diskCache.put(key, bitmap);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_MODERATE) {
+            // The process is likely to be killed, free everything
+            mMemoryCache.evictAll();
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            mMemoryCache.trimToSize(mMemoryCache.maxSize() / 2);
+        }
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Trimmed to " + mMemoryCache.size() + " bytes at level " + level);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        onTrimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    /**
+     * Returns the disk cache, opening it if needed, or null if it can not be
+     * opened.
+     */
+    private ThumbnailDiskCache getDiskCache() {
+        synchronized (mDiskCacheLock) {
+            if (!mDiskCacheOpened) {
+                mDiskCacheOpened = true;
+                try {
+                    mDiskCache = ThumbnailDiskCache.open(mDiskCacheDir, DISK_CACHE_SIZE_BYTES);
+                } catch (IOException e) {
+                    Log.w(TAG, "Could not open disk cache, using memory cache only.", e);
+                }
+            }
+            return mDiskCache;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Thumbnail cache: memory " + mMemoryHits + " hits, " + mMemoryMisses
+                + " misses; disk " + mDiskHits + " hits, " + mDiskMisses + " misses";
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.google.touroflondon.image;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size-bounded cache of decoded thumbnails on disk, keyed by picture URL.
+ * Thumbnails are stored as WEBP files in a single directory and the least
+ * recently used thumbnails are deleted once the cache exceeds its size.
+ * <p>
+ * The entries and their order of use are recorded in an append-only journal.
+ * A thumbnail is written to a temporary file that is only renamed and recorded
+ * in the journal once it is complete, so when the cache is opened after a
+ * crash all files without a journal entry are deleted and a partially written
+ * journal line is ignored. The journal is compacted once it contains too many
+ * redundant lines.
+ * <p>
+ * All methods block on disk I/O and must not be called from the UI thread.
+ */
+public class ThumbnailDiskCache {
+
+    private static final String TAG = "ThumbnailDiskCache";
+
+    private static final String JOURNAL_FILE = "journal";
+    private static final String JOURNAL_FILE_TMP = "journal.tmp";
+    private static final String JOURNAL_HEADER = "thumbnails 1";
+
+    private static final String CLEAN = "CLEAN";
+    private static final String READ = "READ";
+    private static final String REMOVE = "REMOVE";
+
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private static final int WEBP_QUALITY = 80;
+
+    // Number of redundant journal lines before the journal is compacted
+    private static final int MAX_REDUNDANT_LINES = 2000;
+
+    private final File mDirectory;
+    private final long mMaxBytes;
+
+    // Size of each entry in bytes, in order of access
+    private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<String, Long>(16,
+            0.75f, true);
+
+    private long mSize = 0;
+    private int mRedundantLines = 0;
+    private Writer mJournal;
+
+    private ThumbnailDiskCache(File directory, long maxBytes) {
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Opens the cache in the directory, restoring its entries from the
+     * journal.
+     *
+     * @param directory
+     * @param maxBytes Maximum size of all thumbnails
+     * @return
+     * @throws IOException
+     */
+    public static ThumbnailDiskCache open(File directory, long maxBytes) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+
+        ThumbnailDiskCache cache = new ThumbnailDiskCache(directory, maxBytes);
+        if (new File(directory, JOURNAL_FILE).exists()) {
+            cache.readJournal();
+        }
+        cache.deleteUnknownFiles();
+        cache.rebuildJournal();
+        cache.trimToSize();
+        return cache;
+    }
+
+    /**
+     * Returns the encoded thumbnail for the URL, or null if it is not cached.
+     *
+     * @param url
+     * @return
+     */
+    public synchronized byte[] get(String url) {
+        final String key = key(url);
+        final Long size = mEntries.get(key);
+        if (size == null) {
+            return null;
+        }
+
+        byte[] data = new byte[size.intValue()];
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(new File(mDirectory,
+                    key)));
+            try {
+                in.readFully(data);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // The file is missing or truncated
+            remove(key);
+            return null;
+        }
+
+        appendJournal(READ, key);
+        return data;
+    }
+
+    /**
+     * Stores the thumbnail for the URL, replacing any previous thumbnail.
+     *
+     * @param url
+     * @param bitmap
+     */
+    public synchronized void put(String url, Bitmap bitmap) {
+        final String key = key(url);
+        File file = new File(mDirectory, key);
+        File tmp = new File(mDirectory, key + TMP_SUFFIX);
+
+        try {
+            OutputStream out = new FileOutputStream(tmp);
+            try {
+                bitmap.compress(Bitmap.CompressFormat.WEBP, WEBP_QUALITY, out);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write thumbnail.", e);
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            return;
+        }
+
+        Long previous = mEntries.put(key, file.length());
+        if (previous != null) {
+            mSize -= previous;
+        }
+        mSize += file.length();
+        appendJournal(CLEAN, key + " " + file.length());
+
+        trimToSize();
+    }
+
+    private void remove(String key) {
+        Long size = mEntries.remove(key);
+        if (size != null) {
+            mSize -= size;
+        }
+        new File(mDirectory, key).delete();
+        appendJournal(REMOVE, key);
+    }
+
+    /**
+     * Deletes the least recently used thumbnails until the cache fits its
+     * size.
+     */
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> iter = mEntries.entrySet().iterator();
+        while (mSize > mMaxBytes && iter.hasNext()) {
+            Map.Entry<String, Long> entry = iter.next();
+            iter.remove();
+            mSize -= entry.getValue();
+            new File(mDirectory, entry.getKey()).delete();
+            appendJournal(REMOVE, entry.getKey());
+        }
+    }
+
+    /**
+     * Replays the journal. Lines that can not be parsed, such as a line that
+     * was only partially written, are skipped.
+     */
+    private void readJournal() throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(
+                new File(mDirectory, JOURNAL_FILE)), "US-ASCII"));
+        try {
+            if (!JOURNAL_HEADER.equals(reader.readLine())) {
+                // Unknown format, start from scratch
+                return;
+            }
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(" ");
+                if (parts.length == 3 && parts[0].equals(CLEAN)) {
+                    try {
+                        Long previous = mEntries.put(parts[1], Long.parseLong(parts[2]));
+                        if (previous != null) {
+                            mSize -= previous;
+                        }
+                        mSize += Long.parseLong(parts[2]);
+                    } catch (NumberFormatException e) {
+                        // Ignore the partial line
+                    }
+                } else if (parts.length == 2 && parts[0].equals(READ)) {
+                    mEntries.get(parts[1]);
+                } else if (parts.length == 2 && parts[0].equals(REMOVE)) {
+                    Long size = mEntries.remove(parts[1]);
+                    if (size != null) {
+                        mSize -= size;
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Deletes all files that are not part of the journal, such as temporary
+     * files of a write that did not complete.
+     */
+    private void deleteUnknownFiles() {
+        HashSet<String> known = new HashSet<String>(mEntries.keySet());
+        known.add(JOURNAL_FILE);
+
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (!known.contains(file.getName())) {
+                file.delete();
+            }
+        }
+
+        // Drop entries whose file has disappeared
+        Iterator<Map.Entry<String, Long>> iter = mEntries.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<String, Long> entry = iter.next();
+            if (!new File(mDirectory, entry.getKey()).exists()) {
+                mSize -= entry.getValue();
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Writes a compact journal with a single line for each entry, in order of
+     * access, and replaces the current journal with it.
+     */
+    private void rebuildJournal() throws IOException {
+        if (mJournal != null) {
+            mJournal.close();
+        }
+
+        File tmp = new File(mDirectory, JOURNAL_FILE_TMP);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp),
+                "US-ASCII"));
+        try {
+            writer.write(JOURNAL_HEADER + "\n");
+            for (Map.Entry<String, Long> entry : mEntries.entrySet()) {
+                writer.write(CLEAN + " " + entry.getKey() + " " + entry.getValue() + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+        if (!tmp.renameTo(new File(mDirectory, JOURNAL_FILE))) {
+            throw new IOException("Could not replace journal.");
+        }
+
+        mJournal = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(
+                mDirectory, JOURNAL_FILE), true), "US-ASCII"));
+        mRedundantLines = 0;
+    }
+
+    private void appendJournal(String op, String args) {
+        try {
+            mJournal.write(op + " " + args + "\n");
+            mJournal.flush();
+
+            if (++mRedundantLines >= MAX_REDUNDANT_LINES
+                    && mRedundantLines >= mEntries.size()) {
+                rebuildJournal();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write journal.", e);
+        }
+    }
+
+    /**
+     * Returns the file name of the URL, the hex encoded MD5 hash of the URL.
+     */
+    private static String key(String url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest.digest(url.getBytes("UTF-8"))) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available.", e);
+        } catch (IOException e) {
+            throw new IllegalStateException("UTF-8 is not available.", e);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.google.touroflondon.image;
+
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Fetches thumbnails that are not in memory, first from the disk tier of the
+ * {@link ThumbnailCache} and then from the network. Network requests are made
+ * for the URL rewritten to the shown size by a {@link ThumbnailUrlResolver}. There is at most one
+ * fetch in flight for each URL: fetching a URL that is already in flight adds
+ * the listener to the running fetch instead of starting a new one.
+ * <p>
+ * Listeners are registered for an owner, such as the marker whose info window
+ * shows the thumbnail, and each owner has at most one listener per URL. Once
+ * all owners of a fetch have been cancelled, the fetch is dropped and its
+ * network request is cancelled. All methods must be called on the UI thread.
+ * <p>
+ * A fetch runs at the highest priority it has been requested with. If a
+ * listener joins a fetch with a higher priority while its network request is
+ * still waiting in the queue, the request is cancelled and added again at
+ * that priority. A request that is already being downloaded keeps running.
+ */
+public class ThumbnailFetcher {
+
+    private static final String TAG = "ThumbnailFetcher";
+
+    /**
+     * Receives a fetched thumbnail on the UI thread.
+     */
+    public interface Listener {
+        /**
+         * @param url
+         * @param bitmap The thumbnail, or null if it could not be fetched
+         */
+        public void onThumbnailFetched(String url, Bitmap bitmap);
+    }
+
+    /**
+     * A fetch in flight and the listeners waiting for it.
+     */
+    private static class InFlight {
+        final HashMap<Object, Listener> mListeners = new HashMap<Object, Listener>();
+
+        // The highest priority the fetch has been requested with
+        ImageScheduler.Priority mPriority;
+
+        // The network request, null while the disk cache is checked
+        Request<Bitmap> mRequest;
+    }
+
+    private final ImageScheduler mScheduler;
+    private final ThumbnailCache mCache;
+    private final int mTargetSize;
+    private final ThumbnailUrlResolver mResolver;
+
+    private final HashMap<String, InFlight> mInFlight = new HashMap<String, InFlight>();
+
+    private int mFetches = 0;
+    private int mCoalesced = 0;
+    private int mRaised = 0;
+    private int mCancelled = 0;
+
+    /**
+     * @param scheduler
+     * @param cache
+     * @param targetSize The size of the shorter side of the thumbnails in
+     *            pixels, as they are shown
+     */
+    public ThumbnailFetcher(ImageScheduler scheduler, ThumbnailCache cache, int targetSize) {
+        mScheduler = scheduler;
+        mCache = cache;
+        mTargetSize = targetSize;
+        mResolver = new ThumbnailUrlResolver(targetSize);
+    }
+
+    /**
+     * Fetches the thumbnail of the URL, unless it is already in flight, and
+     * calls the listener once it has been fetched. A previous listener of the
+     * owner for the same URL is replaced.
+     *
+     * @param url
+     * @param owner
+     * @param listener
+     * @param priority Priority of the network request, if one is needed
+     */
+    public void fetch(final String url, Object owner, Listener listener,
+            ImageScheduler.Priority priority) {
+        InFlight inFlight = mInFlight.get(url);
+        if (inFlight != null) {
+            mCoalesced++;
+            inFlight.mListeners.put(owner, listener);
+            // Priorities are declared in descending order
+            if (priority.ordinal() < inFlight.mPriority.ordinal()) {
+                raisePriority(url, inFlight, priority);
+            }
+            return;
+        }
+
+        mFetches++;
+        final InFlight fetch = new InFlight();
+        fetch.mListeners.put(owner, listener);
+        fetch.mPriority = priority;
+        mInFlight.put(url, fetch);
+
+        mCache.load(url, mTargetSize, new ThumbnailCache.Callback() {
+            @Override
+            public void onThumbnailLoaded(String url, Bitmap bitmap) {
+                if (mInFlight.get(url) != fetch) {
+                    // Cancelled while the disk cache was checked
+                    return;
+                }
+                if (bitmap != null) {
+                    deliver(url, fetch, bitmap);
+                } else {
+                    fetch.mRequest = request(url, fetch, fetch.mPriority);
+                }
+            }
+        });
+    }
+
+    /**
+     * Removes all listeners of the owner and cancels the fetches that no
+     * longer have any listeners.
+     *
+     * @param owner
+     */
+    public void cancel(Object owner) {
+        Iterator<Map.Entry<String, InFlight>> iter = mInFlight.entrySet().iterator();
+        while (iter.hasNext()) {
+            InFlight inFlight = iter.next().getValue();
+            if (inFlight.mListeners.remove(owner) != null && inFlight.mListeners.isEmpty()) {
+                mCancelled++;
+                if (inFlight.mRequest != null) {
+                    mScheduler.cancel(inFlight.mRequest);
+                }
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the network request of the fetch of the URL, or null if the URL
+     * is not in flight or its disk cache lookup has not completed yet. Used
+     * by tests.
+     *
+     * @param url
+     * @return
+     */
+    Request<Bitmap> getRequest(String url) {
+        InFlight inFlight = mInFlight.get(url);
+        return inFlight != null ? inFlight.mRequest : null;
+    }
+
+    /**
+     * Raises the priority of the fetch. A network request that is still
+     * waiting in the queue is cancelled and queued again at the new priority,
+     * one that has already started is left running so that the URL is not
+     * downloaded twice.
+     */
+    private void raisePriority(String url, InFlight fetch, ImageScheduler.Priority priority) {
+        fetch.mPriority = priority;
+        if (fetch.mRequest != null && mScheduler.cancelIfWaiting(fetch.mRequest)) {
+            mRaised++;
+            fetch.mRequest = request(url, fetch, priority);
+        }
+    }
+
+    private Request<Bitmap> request(final String url, final InFlight fetch,
+            ImageScheduler.Priority priority) {
+        Response.Listener<Bitmap> listener = new Response.Listener<Bitmap>() {
+            @Override
+            public void onResponse(Bitmap bitmap) {
+                mCache.put(url, bitmap);
+                deliver(url, fetch, bitmap);
+            }
+        };
+        Response.ErrorListener errorListener = new Response.ErrorListener() {
+            @Override
+            public void onErrorResponse(VolleyError error) {
+                Log.w(TAG, "Could not fetch " + url, error);
+                deliver(url, fetch, null);
+            }
+        };
+        return mScheduler.load(mResolver.resolve(url), mTargetSize, priority, listener,
+                errorListener);
+    }
+
+    private void deliver(String url, InFlight fetch, Bitmap bitmap) {
+        if (mInFlight.get(url) != fetch) {
+            return;
+        }
+        mInFlight.remove(url);
+        for (Listener listener : fetch.mListeners.values()) {
+            listener.onThumbnailFetched(url, bitmap);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Thumbnail fetches: " + mFetches + " started, " + mCoalesced + " coalesced, "
+                + mRaised + " raised, " + mCancelled + " cancelled, " + mInFlight.size() + " in flight";
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.google.touroflondon.image;
+
+import android.net.Uri;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Rewrites the picture URLs of images hosted on googleusercontent.com, so
+ * that the server returns each thumbnail at the size it is shown at instead of
+ * the size embedded in the URL, such as "w256-h196". Sizes are rounded up to
+ * one of a few buckets, so that the same URLs are requested on devices of a
+ * similar density. Thumbnails are requested as squares cropped to the center,
+ * which is the part shown by the info window.
+ * <p>
+ * The thumbnail caches are keyed by {@link #cacheKey(String)}, the URL without
+ * its size segment, so that a thumbnail is shared by the URLs of all sizes.
+ */
+public class ThumbnailUrlResolver {
+
+    private static final String HOST_SUFFIX = ".googleusercontent.com";
+
+    /** Sizes of the requested thumbnails in pixels, in ascending order. */
+    private static final int[] SIZE_BUCKETS = {
+            96, 128, 192, 256, 384, 512
+    };
+
+    // The size segment before the file name, e.g. "/w256-h196/" or "/s128-c/"
+    private static final Pattern SIZE_SEGMENT = Pattern
+            .compile("/(?:[a-z]{1,2}-)*[swh]\\d+(?:-(?:[swh]\\d+|[a-z]{1,2}))*/(?=[^/]+$)");
+
+    private final int mBucket;
+
+    /**
+     * @param targetSize The size of the shorter side of the thumbnails in
+     *            pixels, as they are shown
+     */
+    public ThumbnailUrlResolver(int targetSize) {
+        int bucket = SIZE_BUCKETS[SIZE_BUCKETS.length - 1];
+        for (int size : SIZE_BUCKETS) {
+            if (size >= targetSize) {
+                bucket = size;
+                break;
+            }
+        }
+        mBucket = bucket;
+    }
+
+    /**
+     * Returns the URL to download the thumbnail from. URLs that are not on
+     * googleusercontent.com or have no size segment are returned unchanged.
+     *
+     * @param url
+     * @return
+     */
+    public String resolve(String url) {
+        Matcher matcher = match(url);
+        if (matcher == null) {
+            return url;
+        }
+        return matcher.replaceFirst("/w" + mBucket + "-h" + mBucket + "-c/");
+    }
+
+    /**
+     * Returns the key of the thumbnail of the URL in the thumbnail caches,
+     * which is the same for all sizes of the thumbnail.
+     *
+     * @param url
+     * @return
+     */
+    public static String cacheKey(String url) {
+        Matcher matcher = match(url);
+        if (matcher == null) {
+            return url;
+        }
+        return matcher.replaceFirst("/");
+    }
+
+    /**
+     * Returns a matcher positioned at the size segment of the URL, or null if
+     * the URL can not be rewritten.
+     */
+    private static Matcher match(String url) {
+        String host = Uri.parse(url).getHost();
+        if (host == null || !host.endsWith(HOST_SUFFIX)) {
+            return null;
+        }
+        Matcher matcher = SIZE_SEGMENT.matcher(url);
+        return matcher.find() ? matcher : null;
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.google.touroflondon.image;
+
+import com.android.volley.Request;
+
+import android.graphics.Bitmap;
+import android.test.InstrumentationTestCase;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests that the {@link ThumbnailFetcher} makes a single network request for
+ * all owners of a URL, also when its priority is raised, and cancels it once
+ * all of them have been cancelled.
+ * Thumbnails are served by a local HTTP server that counts the requests it
+ * receives.
+ */
+public class ThumbnailFetcherTest extends InstrumentationTestCase {
+
+    private static final int TARGET_SIZE = 32;
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    /**
+     * Time for the network thread to parse a response and post its delivery
+     * to the UI thread.
+     */
+    private static final long DELIVERY_MILLIS = 1000;
+
+    private ThumbnailServer mServer;
+    private ThumbnailFetcher mFetcher;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new ThumbnailServer();
+        mServer.start();
+        mFetcher = new ThumbnailFetcher(ImageScheduler.getInstance(),
+                ThumbnailCache.getInstance(getInstrumentation().getTargetContext()),
+                TARGET_SIZE);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.close();
+        super.tearDown();
+    }
+
+    public void testFetchesUrlOnceForAllOwners() throws Throwable {
+        final String url = mServer.newUrl();
+        final CountDownLatch fetched = new CountDownLatch(3);
+        final Bitmap[] bitmaps = new Bitmap[3];
+        runTestOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < bitmaps.length; i++) {
+                    final int owner = i;
+                    mFetcher.fetch(url, owner, new ThumbnailFetcher.Listener() {
+                        @Override
+                        public void onThumbnailFetched(String url, Bitmap bitmap) {
+                            bitmaps[owner] = bitmap;
+                            fetched.countDown();
+                        }
+                    }, ImageScheduler.Priority.VISIBLE);
+                }
+            }
+        });
+
+        assertTrue(fetched.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(1, mServer.getRequestCount());
+        for (Bitmap bitmap : bitmaps) {
+            assertNotNull(bitmap);
+        }
+    }
+
+    public void testRaisingPriorityOfStartedFetchDoesNotFetchAgain() throws Throwable {
+        final String url = mServer.newUrl();
+        final CountDownLatch fetched = new CountDownLatch(2);
+        final ThumbnailFetcher.Listener listener = new ThumbnailFetcher.Listener() {
+            @Override
+            public void onThumbnailFetched(String url, Bitmap bitmap) {
+                fetched.countDown();
+            }
+        };
+
+        // Hold the response so that the request is still running when its
+        // priority is raised
+        mServer.holdResponses();
+        runTestOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                mFetcher.fetch(url, "prefetch", listener, ImageScheduler.Priority.PREFETCH);
+            }
+        });
+        assertTrue(mServer.awaitRequest(TIMEOUT_SECONDS));
+
+        runTestOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                mFetcher.fetch(url, "visible", listener, ImageScheduler.Priority.VISIBLE);
+            }
+        });
+        mServer.releaseResponses();
+
+        assertTrue(fetched.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    public void testCancelsRequestOnceAllOwnersAreCancelled() throws Throwable {
+        final String url = mServer.newUrl();
+        final Object first = new Object();
+        final Object second = new Object();
+        final AtomicInteger delivered = new AtomicInteger();
+        final ThumbnailFetcher.Listener listener = new ThumbnailFetcher.Listener() {
+            @Override
+            public void onThumbnailFetched(String url, Bitmap bitmap) {
+                delivered.incrementAndGet();
+            }
+        };
+
+        // Hold the response until both owners have been cancelled
+        mServer.holdResponses();
+        runTestOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                mFetcher.fetch(url, first, listener, ImageScheduler.Priority.PREFETCH);
+                mFetcher.fetch(url, second, listener, ImageScheduler.Priority.PREFETCH);
+            }
+        });
+        assertTrue(mServer.awaitRequest(TIMEOUT_SECONDS));
+
+        // Failed assertions are rethrown by runTestOnUiThread()
+        runTestOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                Request<Bitmap> request = mFetcher.getRequest(url);
+                assertNotNull(request);
+                mFetcher.cancel(first);
+                assertFalse("Cancelled while an owner was left", request.isCanceled());
+                mFetcher.cancel(second);
+                assertTrue("Not cancelled after all owners", request.isCanceled());
+            }
+        });
+        mServer.releaseResponses();
+
+        // Give the response time to be parsed and delivered, as it would be
+        // if the request had not been cancelled
+        assertTrue(mServer.awaitResponse(TIMEOUT_SECONDS));
+        Thread.sleep(DELIVERY_MILLIS);
+        getInstrumentation().waitForIdleSync();
+        assertEquals(0, delivered.get());
+    }
+
+    /**
+     * A local HTTP server that answers every request with the same PNG image
+     * and counts the requests.
+     */
+    private static class ThumbnailServer extends Thread {
+
+        private final ServerSocket mSocket;
+        private final byte[] mImage;
+        private final AtomicInteger mRequests = new AtomicInteger();
+        private final CountDownLatch mFirstRequest = new CountDownLatch(1);
+        private final CountDownLatch mFirstResponse = new CountDownLatch(1);
+        private volatile CountDownLatch mHold = new CountDownLatch(0);
+        private int mUrls = 0;
+
+        ThumbnailServer() throws IOException {
+            mSocket = new ServerSocket(0);
+            Bitmap bitmap = Bitmap.createBitmap(TARGET_SIZE, TARGET_SIZE,
+                    Bitmap.Config.ARGB_8888);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+            mImage = out.toByteArray();
+        }
+
+        /**
+         * Returns a URL that has not been requested before, so that it is
+         * not in the thumbnail caches.
+         */
+        String newUrl() {
+            return "http://127.0.0.1:" + mSocket.getLocalPort() + "/thumbnail/"
+                    + System.currentTimeMillis() + "-" + mUrls++ + ".png";
+        }
+
+        int getRequestCount() {
+            return mRequests.get();
+        }
+
+        boolean awaitRequest(long timeoutSeconds) throws InterruptedException {
+            return mFirstRequest.await(timeoutSeconds, TimeUnit.SECONDS);
+        }
+
+        boolean awaitResponse(long timeoutSeconds) throws InterruptedException {
+            return mFirstResponse.await(timeoutSeconds, TimeUnit.SECONDS);
+        }
+
+        void holdResponses() {
+            mHold = new CountDownLatch(1);
+        }
+
+        void releaseResponses() {
+            mHold.countDown();
+        }
+
+        void close() throws IOException {
+            releaseResponses();
+            mSocket.close();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    final Socket socket = mSocket.accept();
+                    new Thread() {
+                        @Override
+                        public void run() {
+                            respond(socket);
+                        }
+                    }.start();
+                }
+            } catch (IOException e) {
+                // Closed
+            }
+        }
+
+        private void respond(Socket socket) {
+            try {
+                // Read the request line and headers
+                BufferedReader in = new BufferedReader(new InputStreamReader(
+                        socket.getInputStream(), "US-ASCII"));
+                String line;
+                do {
+                    line = in.readLine();
+                } while (line != null && line.length() > 0);
+                mRequests.incrementAndGet();
+                mFirstRequest.countDown();
+                mHold.await();
+
+                OutputStream out = socket.getOutputStream();
+                out.write(("HTTP/1.1 200 OK\r\nContent-Type: image/png\r\nContent-Length: "
+                        + mImage.length + "\r\nConnection: close\r\n\r\n").getBytes("US-ASCII"));
+                out.write(mImage);
+                out.flush();
+                mFirstResponse.countDown();
+            } catch (IOException e) {
+                // The client went away
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+}
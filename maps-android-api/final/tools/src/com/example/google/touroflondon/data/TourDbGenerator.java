@@ -0,0 +1,412 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.google.touroflondon.data;
+
+import com.example.google.touroflondon.data.TourContract.DictionaryEntry;
+import com.example.google.touroflondon.data.TourContract.MetadataEntry;
+import com.example.google.touroflondon.data.TourContract.PoiEntry;
+import com.example.google.touroflondon.data.TourContract.RouteEntry;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.HashMap;
+
+/**
+ * Generates the prebuilt tour database from tour.json at build time. This is a
+ * plain JVM program, run by the -pre-build target in custom_rules.xml; it
+ * needs the SQLite JDBC driver, Gson and android.jar (for the schema constants
+ * of {@link TourSchema} and {@link TourContract}) on the classpath.
+ * <p>
+ * The generated database has the same schema, indexes, row keys and hashes,
+ * grid cells, encoded route segments, dictionary and source hash that
+ * {@link TourImporter} would write on the device, so the app can copy it into place with
+ * {@link TourDbHelper#installPrebuiltDatabase} and later update it
+ * incrementally.
+ * <p>
+ * If a third file is given, a {@link TourPack} with the same row IDs and
+ * source hash as the database is written to it as well.
+ * <p>
+ * Usage: TourDbGenerator &lt;tour.json&gt; &lt;output.db&gt; [output.pack]
+ */
+public class TourDbGenerator {
+
+    private static final String COMMA_SEP = ",";
+
+    private static final String SQL_INSERT_POI =
+            "INSERT INTO " + PoiEntry.TABLE_NAME + " (" +
+                    PoiEntry.COLUMN_NAME_KEY + COMMA_SEP +
+                    PoiEntry.COLUMN_NAME_TITLE + COMMA_SEP +
+                    PoiEntry.COLUMN_NAME_TYPE + COMMA_SEP +
+                    PoiEntry.COLUMN_NAME_LOCATION_LAT + COMMA_SEP +
+                    PoiEntry.COLUMN_NAME_LOCATION_LNG + COMMA_SEP +
+                    PoiEntry.COLUMN_NAME_DESCRIPTION + COMMA_SEP +
+                    PoiEntry.COLUMN_NAME_PICTURE_URL + COMMA_SEP +
+                    PoiEntry.COLUMN_NAME_PICTURE_URL_PREFIX + COMMA_SEP +
+                    PoiEntry.COLUMN_NAME_PICTURE_ATTR + COMMA_SEP +
+                    PoiEntry.COLUMN_NAME_PICTURE_LICENSE + COMMA_SEP +
+                    PoiEntry.COLUMN_NAME_HASH + COMMA_SEP +
+                    PoiEntry.COLUMN_NAME_CELL +
+                    ") VALUES (?,?,?,?,?,?,?,?,?,?,?,?)";
+
+    private static final String SQL_INSERT_ROUTE =
+            "INSERT INTO " + RouteEntry.TABLE_NAME + " (" +
+                    RouteEntry._ID + COMMA_SEP +
+                    RouteEntry.COLUMN_NAME_COUNT + COMMA_SEP +
+                    RouteEntry.COLUMN_NAME_POINTS + COMMA_SEP +
+                    RouteEntry.COLUMN_NAME_HASH +
+                    ") VALUES (?,?,?,?)";
+
+    private static final String SQL_INSERT_DICTIONARY =
+            "INSERT INTO " + DictionaryEntry.TABLE_NAME + " (" +
+                    DictionaryEntry.COLUMN_NAME_VALUE +
+                    ") VALUES (?)";
+
+    private static final String SQL_INSERT_METADATA =
+            "INSERT INTO " + MetadataEntry.TABLE_NAME + " (" +
+                    MetadataEntry.COLUMN_NAME_KEY + COMMA_SEP +
+                    MetadataEntry.COLUMN_NAME_VALUE +
+                    ") VALUES (?,?)";
+
+    private final PreparedStatement mInsertPoi;
+    private final PreparedStatement mInsertRoute;
+    private final PreparedStatement mInsertDictionary;
+
+    // IDs of the dictionary entries, by value
+    private final HashMap<String, Long> mDictionary = new HashMap<String, Long>();
+
+    // Derives the keys of the POIs
+    private final PoiKeys mKeys = new PoiKeys();
+
+    // Receives the same data as the database
+    private final TourPackWriter mPackWriter = new TourPackWriter();
+
+    // Route points of the segment that is currently being read
+    private final double[] mSegmentLat = new double[RouteEntry.POINTS_PER_SEGMENT];
+    private final double[] mSegmentLng = new double[RouteEntry.POINTS_PER_SEGMENT];
+    private int mSegmentSize = 0;
+    private int mSegmentIndex = 0;
+
+    private int mPois = 0;
+    private int mRoutePoints = 0;
+
+    private TourDbGenerator(Connection connection) throws SQLException {
+        mInsertPoi = connection.prepareStatement(SQL_INSERT_POI);
+        mInsertRoute = connection.prepareStatement(SQL_INSERT_ROUTE);
+        mInsertDictionary = connection.prepareStatement(SQL_INSERT_DICTIONARY);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2 && args.length != 3) {
+            System.err.println("Usage: TourDbGenerator <tour.json> <output.db> [output.pack]");
+            System.exit(1);
+        }
+        File source = new File(args[0]);
+        File target = new File(args[1]);
+        File pack = args.length == 3 ? new File(args[2]) : null;
+
+        // Write to a temporary file and move it into place once complete
+        File tmp = new File(target.getPath() + ".tmp");
+        tmp.delete();
+        target.getAbsoluteFile().getParentFile().mkdirs();
+
+        Class.forName("org.sqlite.JDBC");
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + tmp.getPath());
+        try {
+            connection.setAutoCommit(false);
+
+            Statement statement = connection.createStatement();
+            for (String sql : TourSchema.SQL_CREATE_SCHEMA) {
+                statement.execute(sql);
+            }
+            // Table and schema version expected by SQLiteOpenHelper
+            statement.execute("CREATE TABLE android_metadata (locale TEXT)");
+            statement.execute("INSERT INTO android_metadata VALUES ('en_US')");
+            statement.execute("PRAGMA user_version = " + TourSchema.VERSION);
+
+            TourDbGenerator generator = new TourDbGenerator(connection);
+            InputStream in = new FileInputStream(source);
+            try {
+                generator.read(in);
+            } finally {
+                in.close();
+            }
+
+            final String sourceHash = hashSource(source);
+            PreparedStatement metadata = connection.prepareStatement(SQL_INSERT_METADATA);
+            metadata.setString(1, MetadataEntry.KEY_SOURCE_HASH);
+            metadata.setString(2, sourceHash);
+            metadata.executeUpdate();
+
+            connection.commit();
+
+            // Compact the file and collect index statistics
+            connection.setAutoCommit(true);
+            statement.execute("ANALYZE");
+            statement.execute("VACUUM");
+            statement.close();
+
+            System.out.println("Generated " + target + " with " + generator.mPois + " POIs and "
+                    + generator.mRoutePoints + " route points.");
+
+            if (pack != null) {
+                generator.mPackWriter.write(pack, sourceHash);
+                System.out.println("Generated " + pack + ".");
+            }
+        } finally {
+            connection.close();
+        }
+
+        target.delete();
+        if (!tmp.renameTo(target)) {
+            throw new IOException("Could not move " + tmp + " to " + target);
+        }
+    }
+
+    /**
+     * Reads the tour file in the same way as {@link TourJsonReader}.
+     */
+    private void read(InputStream in) throws IOException, SQLException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("pointsOfInterest")) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    readPoi(reader);
+                }
+                reader.endArray();
+            } else if (name.equals("route")) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    readRoutePoint(reader);
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (mSegmentSize > 0) {
+            writeSegment();
+        }
+    }
+
+    private void readPoi(JsonReader reader) throws IOException, SQLException {
+        String id = null;
+        String title = null;
+        String type = null;
+        String description = null;
+        String pictureUrl = null;
+        String pictureAttr = null;
+        double lat = 0;
+        double lng = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("id")) {
+                id = nextString(reader);
+            } else if (name.equals("title")) {
+                title = nextString(reader);
+            } else if (name.equals("type")) {
+                type = nextString(reader);
+            } else if (name.equals("description")) {
+                description = nextString(reader);
+            } else if (name.equals("pictureUrl")) {
+                pictureUrl = nextString(reader);
+            } else if (name.equals("pictureAttr")) {
+                pictureAttr = nextString(reader);
+            } else if (name.equals("location")) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String field = reader.nextName();
+                    if (field.equals("lat")) {
+                        lat = reader.nextDouble();
+                    } else if (field.equals("lng")) {
+                        lng = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        // Columns are bound in the order of SQL_INSERT_POI. The key is derived
+        // as in TourJsonReader, so that the importer can match the rows.
+        setString(mInsertPoi, 1, mKeys.next(id, title));
+        setString(mInsertPoi, 2, title);
+        setString(mInsertPoi, 3, type);
+        mInsertPoi.setDouble(4, lat);
+        mInsertPoi.setDouble(5, lng);
+        setString(mInsertPoi, 6, description);
+        if (pictureUrl != null) {
+            mInsertPoi.setString(7, TourDictionary.stripUrlPrefix(pictureUrl));
+            setId(mInsertPoi, 8, TourDictionary.getUrlPrefix(pictureUrl));
+        } else {
+            mInsertPoi.setNull(7, Types.VARCHAR);
+            mInsertPoi.setNull(8, Types.INTEGER);
+        }
+        if (pictureAttr != null) {
+            mInsertPoi.setString(9, TourDictionary.stripLicense(pictureAttr));
+            setId(mInsertPoi, 10, TourDictionary.getLicense(pictureAttr));
+        } else {
+            mInsertPoi.setNull(9, Types.VARCHAR);
+            mInsertPoi.setNull(10, Types.INTEGER);
+        }
+        mInsertPoi.setLong(11,
+                TourHash.poi(title, type, description, pictureUrl, pictureAttr, lat, lng));
+        mInsertPoi.setLong(12, SpatialGrid.cell(lat, lng));
+        mInsertPoi.executeUpdate();
+        mPois++;
+
+        // The pack references the POI by its row ID
+        ResultSet keys = mInsertPoi.getGeneratedKeys();
+        try {
+            keys.next();
+            mPackWriter.addPoi(keys.getLong(1), title, description, type, lat, lng,
+                    pictureAttr, pictureUrl);
+        } finally {
+            keys.close();
+        }
+    }
+
+    private void readRoutePoint(JsonReader reader) throws IOException, SQLException {
+        double lat = 0;
+        double lng = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("lat")) {
+                lat = reader.nextDouble();
+            } else if (name.equals("lng")) {
+                lng = reader.nextDouble();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        mPackWriter.addRoutePoint(lat, lng);
+        mSegmentLat[mSegmentSize] = lat;
+        mSegmentLng[mSegmentSize] = lng;
+        mSegmentSize++;
+        if (mSegmentSize == RouteEntry.POINTS_PER_SEGMENT) {
+            writeSegment();
+        }
+    }
+
+    private void writeSegment() throws SQLException {
+        mInsertRoute.setLong(1, mSegmentIndex);
+        mInsertRoute.setInt(2, mSegmentSize);
+        mInsertRoute.setBytes(3, RouteCodec.encode(mSegmentLat, mSegmentLng, mSegmentSize));
+        mInsertRoute.setLong(4, TourHash.segment(mSegmentLat, mSegmentLng, mSegmentSize));
+        mInsertRoute.executeUpdate();
+        mRoutePoints += mSegmentSize;
+
+        mSegmentIndex++;
+        mSegmentSize = 0;
+    }
+
+    /**
+     * Sets the dictionary ID of the value, inserting it into the dictionary
+     * if needed, or null if the value is null.
+     */
+    private void setId(PreparedStatement statement, int index, String value)
+            throws SQLException {
+        if (value == null) {
+            statement.setNull(index, Types.INTEGER);
+            return;
+        }
+        Long id = mDictionary.get(value);
+        if (id == null) {
+            mInsertDictionary.setString(1, value);
+            mInsertDictionary.executeUpdate();
+            ResultSet keys = mInsertDictionary.getGeneratedKeys();
+            try {
+                keys.next();
+                id = keys.getLong(1);
+            } finally {
+                keys.close();
+            }
+            mDictionary.put(value, id);
+        }
+        statement.setLong(index, id);
+    }
+
+    private static String nextString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    private static void setString(PreparedStatement statement, int index, String value)
+            throws SQLException {
+        if (value == null) {
+            statement.setNull(index, Types.VARCHAR);
+        } else {
+            statement.setString(index, value);
+        }
+    }
+
+    /**
+     * Returns the SHA-1 hash of the file as a hex string, computed in the same
+     * way as by {@link TourImportTask}.
+     */
+    private static String hashSource(File source) throws IOException, NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-1");
+        InputStream in = new FileInputStream(source);
+        try {
+            byte[] buffer = new byte[8192];
+            int length;
+            while ((length = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, length);
+            }
+        } finally {
+            in.close();
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest()) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+}